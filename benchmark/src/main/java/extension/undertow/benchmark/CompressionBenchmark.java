@@ -0,0 +1,153 @@
+package extension.undertow.benchmark;
+
+import io.undertow.Undertow;
+import io.undertow.predicate.Predicates;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static extension.undertow.server.Handlers.compressResponse;
+import static extension.undertow.server.HttpServer.newHttpServer;
+import static io.undertow.util.Headers.CONTENT_TYPE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+// Responses going through compressResponse, so the policy decides per response and the pooled
+// Deflater conduit does the work, against the EncodingHandler compressResponse used before, which
+// gzips everything with a new Deflater. Measured behind a loopback server with a minimal keep-alive
+// client like StaticHtmlBenchmark. The jpeg body shows the content type check, small-json the
+// minimum size, json the conduit itself.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CompressionBenchmark {
+
+    @Param({"policy", "undertow"})
+    public String variant;
+    @Param({"json", "small-json", "jpeg"})
+    public String content;
+
+    private Undertow server;
+    private Socket socket;
+    private OutputStream out;
+    private InputStream in;
+    private byte[] request, body;
+
+    @Setup
+    public void setup() throws IOException {
+        final byte[] response = "jpeg".equals(content) ? newImage(32 * 1024)
+            : newJson("small-json".equals(content) ? 512 : 32 * 1024);
+        final String contentType = "jpeg".equals(content) ? "image/jpeg" : "application/json";
+        final HttpHandler handler = exchange -> {
+            exchange.getResponseHeaders().put(CONTENT_TYPE, contentType);
+            exchange.getResponseSender().send(ByteBuffer.wrap(response));
+        };
+        server = newHttpServer("127.0.0.1", 0, false, "policy".equals(variant)
+            ? compressResponse(handler) : undertowCompression(handler));
+        server.start();
+
+        final var address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+        socket = new Socket(address.getAddress(), address.getPort());
+        socket.setTcpNoDelay(true);
+        out = socket.getOutputStream();
+        in = new BufferedInputStream(socket.getInputStream(), 65536);
+        body = new byte[64 * 1024];
+        request = "GET / HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip\r\n\r\n".getBytes(US_ASCII);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        socket.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public int response() throws IOException {
+        out.write(request);
+        return readResponse();
+    }
+
+    private static HttpHandler undertowCompression(final HttpHandler next) {
+        return new EncodingHandler(new ContentEncodingRepository()
+            .addEncodingHandler("gzip", new GzipEncodingProvider(), 100, Predicates.parse("max-content-size[5]"))
+            .addEncodingHandler("deflate", new DeflateEncodingProvider(), 50, Predicates.requestLargerThan(5)))
+            .setNext(next);
+    }
+
+    // Reads one response, with a Content-Length or chunked, and returns the number of body bytes
+    private int readResponse() throws IOException {
+        final String statusLine = readLine();
+        if (!statusLine.startsWith("HTTP/1.1 200")) throw new IOException("Unexpected response " + statusLine);
+        int contentLength = 0;
+        boolean chunked = false;
+        for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+            final int colon = line.indexOf(':');
+            final String name = line.substring(0, colon);
+            final String value = line.substring(colon + 1).trim();
+            if ("Content-Length".equalsIgnoreCase(name)) contentLength = Integer.parseInt(value);
+            if ("Transfer-Encoding".equalsIgnoreCase(name)) chunked = value.equalsIgnoreCase("chunked");
+        }
+        if (!chunked) return readBody(contentLength);
+
+        int total = 0;
+        while (true) {
+            final String sizeLine = readLine();
+            final int extension = sizeLine.indexOf(';');
+            final int size = Integer.parseInt(extension == -1 ? sizeLine : sizeLine.substring(0, extension), 16);
+            if (size == 0) break;
+            total += readBody(size);
+            readLine();
+        }
+        for (String trailer = readLine(); !trailer.isEmpty(); trailer = readLine()) {}
+        return total;
+    }
+
+    private int readBody(final int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int count = in.read(body, 0, Math.min(body.length, length - read));
+            if (count == -1) throw new IOException("Connection closed");
+            read += count;
+        }
+        return read;
+    }
+
+    private String readLine() throws IOException {
+        final var line = new StringBuilder(64);
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c == -1) throw new IOException("Connection closed");
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private static byte[] newJson(final int size) {
+        final var builder = new StringBuilder("[");
+        for (int i = 0; builder.length() < size; i++) {
+            builder.append("{\"id\":").append(i).append(",\"name\":\"customer-").append(i)
+                .append("\",\"email\":\"customer").append(i).append("@example.com\",\"active\":true},");
+        }
+        return builder.append("{}]").toString().getBytes(UTF_8);
+    }
+
+    // Compressed images look like random data to a Deflater
+    private static byte[] newImage(final int size) {
+        final byte[] image = new byte[size];
+        new Random(42).nextBytes(image);
+        return image;
+    }
+
+}
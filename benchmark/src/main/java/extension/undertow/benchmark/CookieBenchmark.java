@@ -0,0 +1,44 @@
+package extension.undertow.benchmark;
+
+import io.undertow.server.HttpServerExchange;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static extension.undertow.session.SessionStore.getValueForCookie;
+import static io.undertow.util.Headers.COOKIE;
+import static io.undertow.util.Methods.GET;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CookieBenchmark {
+
+    @Param({"1", "10", "40"})
+    public int cookieCount;
+
+    private HttpServerExchange exchange;
+
+    @Setup
+    public void setup() {
+        final var header = new StringBuilder();
+        for (int i = 0; i < cookieCount - 1; i++) {
+            header.append("_tracking_cookie_").append(i).append('=').append("a1b2c3d4e5f6a7b8c9d0").append("; ");
+        }
+        header.append("session=eyJ1c2VySWQiOiIxMjM0NTY3ODkwIiwiY3NyZlRva2VuIjoiYWJjZGVmIn0.c2lnbmF0dXJlLWJ5dGVz");
+
+        exchange = Exchanges.newRequest(GET, "/");
+        exchange.getRequestHeaders().add(COOKIE, header.toString());
+    }
+
+    @Benchmark
+    public String presentCookie() {
+        return getValueForCookie(exchange, "session");
+    }
+
+    @Benchmark
+    public String missingCookie() {
+        return getValueForCookie(exchange, "remember-me");
+    }
+
+}
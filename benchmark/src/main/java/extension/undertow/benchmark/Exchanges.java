@@ -0,0 +1,18 @@
+package extension.undertow.benchmark;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+
+// Exchanges without a connection, good enough for code that only looks at the request
+enum Exchanges {;
+
+    static HttpServerExchange newRequest(final HttpString method, final String path) {
+        final var exchange = new HttpServerExchange(null);
+        exchange.setRequestMethod(method);
+        exchange.setRequestURI(path);
+        exchange.setRequestPath(path);
+        exchange.setRelativePath(path);
+        return exchange;
+    }
+
+}
@@ -0,0 +1,66 @@
+package extension.undertow.benchmark;
+
+import extension.undertow.error.InvalidInput;
+import io.undertow.server.HttpServerExchange;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static extension.undertow.server.RequestParser.*;
+import static io.undertow.util.Headers.X_FORWARDED_FOR;
+import static io.undertow.util.Methods.GET;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestParserBenchmark {
+
+    private String queryString;
+    private HttpServerExchange exchange;
+
+    @Setup
+    public void setup() {
+        final var query = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            query.append("filter").append(i).append('=').append("value%20with%20spaces%20").append(i).append('&');
+        }
+        query.append("page=7&size=250&sort=created_at&order=desc");
+        queryString = query.toString();
+
+        exchange = Exchanges.newRequest(GET, "/api/v1/search");
+        exchange.setQueryString(queryString);
+        for (int i = 0; i < 50; i++) {
+            exchange.addQueryParam("filter" + i, "value with spaces " + i);
+        }
+        exchange.addQueryParam("page", "7");
+        exchange.addQueryParam("size", "250");
+        exchange.addQueryParam("sort", "created_at");
+        exchange.getRequestHeaders().add(X_FORWARDED_FOR, "203.0.113.195, 70.41.3.18, 150.172.238.178");
+    }
+
+    @Benchmark
+    public String rawQueryStringLastParameter() throws InvalidInput {
+        return getMandatoryString(queryString, "order");
+    }
+
+    @Benchmark
+    public String queryParameter() throws InvalidInput {
+        return getMandatoryString(exchange, "sort");
+    }
+
+    @Benchmark
+    public Integer optionalInteger() throws InvalidInput {
+        return getOptionalInteger(exchange, "size", 20);
+    }
+
+    @Benchmark
+    public int boundedInteger() throws InvalidInput {
+        return getBoundedInteger(exchange, "page", 1, 1, 1000);
+    }
+
+    @Benchmark
+    public String sourceAddress() {
+        return getSourceIPAddress(exchange);
+    }
+
+}
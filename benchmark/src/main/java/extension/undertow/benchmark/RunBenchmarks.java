@@ -0,0 +1,25 @@
+package extension.undertow.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+public enum RunBenchmarks {;
+
+    // Optional first argument is a regex that selects the benchmarks to run
+    public static void main(final String... args) throws RunnerException {
+        final var options = new OptionsBuilder()
+            .include(args.length == 0 ? "extension\\.undertow\\.benchmark\\..*Benchmark" : args[0])
+            .mode(Throughput)
+            .addProfiler(GCProfiler.class)
+            .forks(1)
+            .warmupIterations(3)
+            .measurementIterations(5)
+            .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,90 @@
+package extension.undertow.benchmark;
+
+import extension.undertow.error.InvalidInput;
+import extension.undertow.session.Session;
+import extension.undertow.session.SessionCodec;
+import extension.undertow.session.TokenSessionStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.undertow.util.Headers.SET_COOKIE;
+import static io.undertow.util.Methods.GET;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SessionTokenBenchmark {
+
+    public record BenchmarkSession(String userId, String email, String csrfToken, long exp) implements Session {}
+
+    private final TokenSessionStore<BenchmarkSession> store = new TokenSessionStore<>() {
+        public String getSessionValidationKey() {
+            return "a-validation-key-that-is-long-enough-for-hmac-sha256";
+        }
+        public Class<BenchmarkSession> getSessionClass() {
+            return BenchmarkSession.class;
+        }
+    };
+    private final TokenSessionStore<BenchmarkSession> binaryStore = new TokenSessionStore<>() {
+        public String getSessionValidationKey() {
+            return "a-validation-key-that-is-long-enough-for-hmac-sha256";
+        }
+        public Class<BenchmarkSession> getSessionClass() {
+            return BenchmarkSession.class;
+        }
+        public SessionCodec getSessionCodec() {
+            return SessionCodec.BINARY;
+        }
+    };
+
+    private String token;
+    private String tamperedToken;
+    private String binaryToken;
+
+    @Setup
+    public void setup() {
+        final var session = new BenchmarkSession("1234567890",
+            "someone@example.com", "0f9e8d7c6b5a49382716", System.currentTimeMillis());
+        token = newToken(store, session);
+        binaryToken = newToken(binaryStore, session);
+        final int keyId = token.lastIndexOf('.');
+        tamperedToken = token.substring(0, keyId - 2) + "AA" + token.substring(keyId);
+    }
+
+    // Invalid tokens are reported with an exception, the benchmarks measure whichever path is taken
+    @Benchmark
+    public Object validToken() {
+        try {
+            return store.fromSessionValue(token);
+        } catch (final InvalidInput e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object validBinaryToken() {
+        try {
+            return binaryStore.fromSessionValue(binaryToken);
+        } catch (final InvalidInput e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object tamperedToken() {
+        try {
+            return store.fromSessionValue(tamperedToken);
+        } catch (final InvalidInput e) {
+            return e;
+        }
+    }
+
+    private static String newToken(final TokenSessionStore<BenchmarkSession> store, final BenchmarkSession session) {
+        final var exchange = Exchanges.newRequest(GET, "/");
+        store.setSession(exchange, session);
+        final String cookie = exchange.getResponseHeaders().getFirst(SET_COOKIE);
+        return cookie.substring(cookie.indexOf('=') + 1, cookie.indexOf(';'));
+    }
+
+}
@@ -0,0 +1,72 @@
+package extension.undertow.benchmark;
+
+import extension.undertow.server.SpaRoutes;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static extension.undertow.server.SpaRoutes.compileRoutes;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpaRoutesBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int routeCount;
+
+    private Set<String> literalSet;
+    private SpaRoutes literalRoutes;
+    private SpaRoutes templateRoutes;
+    private String literalPath, templatePath, tailPath, unknownPath;
+
+    @Setup
+    public void setup() {
+        final List<String> literals = new ArrayList<>();
+        final List<String> templates = new ArrayList<>();
+        for (int i = 0; i < routeCount; i++) {
+            literals.add("/section" + (i % 50) + "/page" + i);
+            templates.add("/section" + (i % 50) + "/page" + i + "/{id}");
+        }
+        templates.add("/docs/**");
+        literalSet = new HashSet<>(literals);
+        literalRoutes = compileRoutes(literals);
+        templateRoutes = compileRoutes(templates);
+
+        literalPath = literals.get(routeCount / 2);
+        templatePath = "/section" + ((routeCount - 1) % 50) + "/page" + (routeCount - 1) + "/42";
+        tailPath = "/docs/guide/getting-started/install";
+        unknownPath = "/nothing/here/at/all";
+    }
+
+    // The exact Set lookup singlePageApp used so far, as the baseline for literal paths
+    @Benchmark
+    public boolean setLiteral() {
+        return literalSet.contains(literalPath);
+    }
+
+    @Benchmark
+    public boolean compiledLiteral() {
+        return literalRoutes.matches(literalPath);
+    }
+
+    @Benchmark
+    public boolean compiledTemplate() {
+        return templateRoutes.matches(templatePath);
+    }
+
+    @Benchmark
+    public boolean compiledTail() {
+        return templateRoutes.matches(tailPath);
+    }
+
+    @Benchmark
+    public boolean compiledUnknown() {
+        return templateRoutes.matches(unknownPath);
+    }
+
+}
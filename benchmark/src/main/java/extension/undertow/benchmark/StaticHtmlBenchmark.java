@@ -0,0 +1,129 @@
+package extension.undertow.benchmark;
+
+import extension.undertow.server.Handlers.CspSettings;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static extension.undertow.server.Handlers.staticHtml;
+import static extension.undertow.server.HttpServer.newHttpServer;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+// staticHtml writes its response through the connection, so it is measured behind a loopback
+// server with a minimal keep-alive client. The client allocates a little per response for the
+// header lines, compare the variants against each other rather than reading absolute numbers.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StaticHtmlBenchmark {
+
+    @Param({"plain", "csp"})
+    public String variant;
+    @Param({"16384", "262144"})
+    public int pageSize;
+
+    private Undertow server;
+    private Socket socket;
+    private OutputStream out;
+    private InputStream in;
+    private byte[] request, revalidate, body;
+
+    @Setup
+    public void setup() throws IOException {
+        final String page = newPage(pageSize);
+        final HttpHandler handler = "csp".equals(variant)
+            ? staticHtml(new CspSettings("default-src 'self'; script-src 'self'", "'self'", "default"), page)
+            : staticHtml(page);
+        server = newHttpServer("127.0.0.1", 0, false, handler);
+        server.start();
+
+        final var address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+        socket = new Socket(address.getAddress(), address.getPort());
+        socket.setTcpNoDelay(true);
+        out = socket.getOutputStream();
+        in = new BufferedInputStream(socket.getInputStream(), 65536);
+        body = new byte[pageSize * 2];
+
+        request = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(US_ASCII);
+        final String etag = fetchEtag();
+        revalidate = ("GET / HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: " + etag + "\r\n\r\n").getBytes(US_ASCII);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        socket.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public int fullPage() throws IOException {
+        out.write(request);
+        return readResponse(null);
+    }
+
+    @Benchmark
+    public int notModified() throws IOException {
+        out.write(revalidate);
+        return readResponse(null);
+    }
+
+    private String fetchEtag() throws IOException {
+        out.write(request);
+        final var etag = new StringBuilder();
+        readResponse(etag);
+        return etag.toString();
+    }
+
+    // Reads one response and returns the status code, the ETag is copied out when asked for
+    private int readResponse(final StringBuilder etag) throws IOException {
+        final String statusLine = readLine();
+        final int status = Integer.parseInt(statusLine.substring(9, 12));
+        int contentLength = 0;
+        for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+            final int colon = line.indexOf(':');
+            final String name = line.substring(0, colon);
+            if ("Content-Length".equalsIgnoreCase(name)) contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+            if (etag != null && "ETag".equalsIgnoreCase(name)) etag.append(line.substring(colon + 1).trim());
+        }
+        int read = 0;
+        while (read < contentLength) {
+            final int count = in.read(body, 0, Math.min(body.length, contentLength - read));
+            if (count == -1) throw new IOException("Connection closed");
+            read += count;
+        }
+        return status;
+    }
+
+    private String readLine() throws IOException {
+        final var line = new StringBuilder(64);
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c == -1) throw new IOException("Connection closed");
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private static String newPage(final int size) {
+        final var page = new StringBuilder(size + 256);
+        page.append("<!DOCTYPE html><html><head><title>Benchmark</title>")
+            .append("<script nonce=\"${CSP_NONCE}\" src=\"/app.js\"></script>")
+            .append("<link rel=\"stylesheet\" nonce=\"${CSP_NONCE}\" href=\"/app.css\">")
+            .append("</head><body>");
+        int row = 0;
+        while (page.length() < size) {
+            page.append("<div class=\"row\"><span>Row ").append(row++).append("</span>");
+            if (row % 50 == 0) page.append("<script nonce=\"${CSP_NONCE}\">window.rows=").append(row).append(";</script>");
+            page.append("</div>");
+        }
+        return page.append("</body></html>").toString();
+    }
+
+}
@@ -0,0 +1,59 @@
+package extension.undertow.benchmark;
+
+import extension.undertow.server.UserRoutingHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static extension.undertow.server.Handlers.userRouting;
+import static io.undertow.util.Methods.GET;
+import static io.undertow.util.Methods.POST;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserRoutingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int routeCount;
+
+    private UserRoutingHandler<String> routing;
+    private String literalPath, templatePath;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        routing = userRouting();
+        for (int i = 0; i < routeCount; i++) {
+            routing.get("/api/v1/resource" + i + "/{id}", (session, exchange) -> blackhole.consume(exchange));
+            routing.post("/api/v1/resource" + i + "/{id}/action", (session, exchange) -> blackhole.consume(exchange));
+            routing.get("/api/v1/static" + i, (session, exchange) -> blackhole.consume(exchange));
+        }
+        routing.fallback(exchange -> blackhole.consume(exchange));
+        literalPath = "/api/v1/static" + (routeCount / 2);
+        templatePath = "/api/v1/resource" + (routeCount - 1) + "/42/action";
+    }
+
+    // The router adds path parameters to the exchange, so every invocation needs a fresh one.
+    // Creating it is included in the measurement, newExchange shows what that costs on its own.
+    @Benchmark
+    public Object newExchange() {
+        return Exchanges.newRequest(GET, literalPath);
+    }
+
+    @Benchmark
+    public void literalRoute() throws Exception {
+        routing.handleRequest("session", Exchanges.newRequest(GET, literalPath));
+    }
+
+    @Benchmark
+    public void templateRoute() throws Exception {
+        routing.handleRequest("session", Exchanges.newRequest(POST, templatePath));
+    }
+
+    @Benchmark
+    public void unknownRoute() throws Exception {
+        routing.handleRequest("session", Exchanges.newRequest(GET, "/api/v2/nothing/here"));
+    }
+
+}
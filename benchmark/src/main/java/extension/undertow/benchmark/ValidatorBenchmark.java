@@ -0,0 +1,94 @@
+package extension.undertow.benchmark;
+
+import extension.undertow.error.InvalidInput;
+import extension.undertow.server.ValidationRules;
+import extension.undertow.server.Validator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static extension.undertow.server.ValidationRules.newValidationRules;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ValidatorBenchmark {
+
+    // The regular expressions the scanners replaced, kept here as the baseline
+    private static final Pattern
+        EMAIL_REGEX = Pattern.compile("[a-z0-9\\-_+\\.]+@[a-z0-9-\\.]+"),
+        ALPHA_REGEX = Pattern.compile("[a-zA-Z]+"),
+        NUMERIC_REGEX = Pattern.compile("-?[0-9]+");
+
+    private final String email = "first.last+tag@mail.example.com";
+    private final String alpha = "SomeUserName";
+    private final String numeric = "-1234567890";
+    private final String code = "AB-1234";
+
+    private ValidationRules rules;
+
+    @Setup
+    public void setup() {
+        rules = newValidationRules()
+            .notEmpty("Missing")
+            .length(3, 64, "Wrong length")
+            .email("Not an email address")
+            .inSet(Set.of(email, "someone@example.com"), "Unknown address")
+            .build();
+    }
+
+    @Benchmark
+    public boolean emailRegex() {
+        return EMAIL_REGEX.matcher(email).matches();
+    }
+
+    @Benchmark
+    public boolean emailScanner() {
+        return Validator.isEmailAddress(email);
+    }
+
+    @Benchmark
+    public boolean alphaRegex() {
+        return ALPHA_REGEX.matcher(alpha).matches();
+    }
+
+    @Benchmark
+    public boolean alphaScanner() {
+        return Validator.isAlpha(alpha);
+    }
+
+    @Benchmark
+    public boolean numericRegex() {
+        return NUMERIC_REGEX.matcher(numeric).matches();
+    }
+
+    @Benchmark
+    public boolean numericScanner() {
+        return Validator.isNumeric(numeric);
+    }
+
+    // Compiling on every call is what requireMatch(String, ...) used to do
+    @Benchmark
+    public boolean requireMatchCompiled() {
+        return Pattern.compile("[A-Z]{2}-[0-9]{4}").matcher(code).matches();
+    }
+
+    // Validator throws the common.error type, ValidationRules the stackless one from this library
+    @Benchmark
+    public String requireMatchCached() throws common.error.InvalidInput {
+        return Validator.requireMatch("[A-Z]{2}-[0-9]{4}", code, "Invalid code");
+    }
+
+    @Benchmark
+    public String ruleChain() throws InvalidInput {
+        return rules.require(email);
+    }
+
+    @Benchmark
+    public Object ruleChainRejected() {
+        return rules.check("not an email");
+    }
+
+}
@@ -0,0 +1,84 @@
+package extension.undertow.benchmark;
+
+import extension.undertow.server.HostRouter;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.NameVirtualHostHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static extension.undertow.server.HostRouter.newHostRouter;
+import static io.undertow.util.Headers.HOST;
+import static io.undertow.util.Methods.GET;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VirtualHostBenchmark {
+
+    @Param({"100", "10000"})
+    public int hostCount;
+
+    private NameVirtualHostHandler nameVirtualHosts;
+    private HostRouter hostRouter;
+    private HttpServerExchange exactHost, wildcardHost, unknownHost;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        final HttpHandler handler = blackhole::consume;
+        nameVirtualHosts = new NameVirtualHostHandler();
+        nameVirtualHosts.setDefaultHandler(handler);
+        final var router = newHostRouter().fallback(handler);
+        for (int i = 0; i < hostCount; i++) {
+            nameVirtualHosts.addHost("tenant" + i + ".example.com", handler);
+            router.host("tenant" + i + ".example.com", handler);
+        }
+        router.host("*.apps.example.com", handler);
+        hostRouter = router.build();
+
+        // The routers only read the Host header, so the exchanges can be reused
+        exactHost = withHost("Tenant" + (hostCount / 2) + ".Example.com:8443");
+        wildcardHost = withHost("shop42.apps.example.com");
+        unknownHost = withHost("nobody.example.org");
+    }
+
+    private static HttpServerExchange withHost(final String host) {
+        final var exchange = Exchanges.newRequest(GET, "/");
+        exchange.getRequestHeaders().put(HOST, host);
+        return exchange;
+    }
+
+    @Benchmark
+    public void nameVirtualHostExact() throws Exception {
+        nameVirtualHosts.handleRequest(exactHost);
+    }
+
+    @Benchmark
+    public void hostRouterExact() throws Exception {
+        hostRouter.handleRequest(exactHost);
+    }
+
+    // NameVirtualHostHandler has no wildcards, this request ends up in its default handler
+    @Benchmark
+    public void nameVirtualHostWildcard() throws Exception {
+        nameVirtualHosts.handleRequest(wildcardHost);
+    }
+
+    @Benchmark
+    public void hostRouterWildcard() throws Exception {
+        hostRouter.handleRequest(wildcardHost);
+    }
+
+    @Benchmark
+    public void nameVirtualHostUnknown() throws Exception {
+        nameVirtualHosts.handleRequest(unknownHost);
+    }
+
+    @Benchmark
+    public void hostRouterUnknown() throws Exception {
+        hostRouter.handleRequest(unknownHost);
+    }
+
+}
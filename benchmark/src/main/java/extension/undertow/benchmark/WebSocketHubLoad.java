@@ -0,0 +1,174 @@
+package extension.undertow.benchmark;
+
+import extension.undertow.metrics.LatencyHistogram;
+import extension.undertow.server.Logger;
+import extension.undertow.session.Session;
+import extension.undertow.session.SessionStore;
+import extension.undertow.websocket.WebSocketHub;
+import io.undertow.Undertow;
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.websockets.client.WebSocketClient;
+import io.undertow.websockets.client.WebSocketClientNegotiation;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import org.xnio.IoFuture;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static extension.undertow.session.SessionStore.getValueForCookie;
+import static extension.undertow.websocket.WebSocketHub.newWebSocketHub;
+
+// Not a JMH benchmark, fan-out needs real connections. Starts a server with a WebSocketHub, opens
+// the connections from this same process and broadcasts timestamped messages to all of them. Reports
+// deliveries per second and the latency from broadcast() to arrival at the client.
+//
+//     java -cp benchmarks.jar extension.undertow.benchmark.WebSocketHubLoad [connections] [broadcasts] [addresses]
+//
+// 50.000 connections need a file descriptor limit of at least 110.000 (ulimit -n). One source
+// address only has about 28.000 ephemeral ports, so the clients spread over 127.0.0.1 to 127.0.0.n.
+public enum WebSocketHubLoad {;
+
+    private record LoadSession(String userId) implements Session {
+        public String csrfToken() {
+            return "";
+        }
+    }
+
+    private static final SessionStore<LoadSession> SESSIONS = new SessionStore<>() {
+        public void setSession(final HttpServerExchange exchange, final LoadSession session) {}
+        public boolean existsSession(final HttpServerExchange exchange) {
+            return getValueForCookie(exchange, getSessionCookieName()) != null;
+        }
+        public LoadSession getSession(final HttpServerExchange exchange) {
+            return getSession(exchange, null);
+        }
+        public LoadSession getSession(final HttpServerExchange exchange, final LoadSession defaultValue) {
+            final String userId = getValueForCookie(exchange, getSessionCookieName());
+            return userId == null ? defaultValue : new LoadSession(userId);
+        }
+        public void deleteSession(final HttpServerExchange exchange) {}
+    };
+
+    // Nothing in this run is expected to fail, anything that does is printed
+    private static final Logger ERRORS = new Logger() {
+        public void error(final Throwable e) {
+            e.printStackTrace();
+        }
+        public void error(final String message) {
+            System.err.println(message);
+        }
+        public void info(final String message) {
+            System.out.println(message);
+        }
+    };
+
+    private static final int PORT = 18080;
+
+    public static void main(final String... args) throws Exception {
+        final int connections = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        final int broadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final int addresses = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        final int cores = Runtime.getRuntime().availableProcessors();
+
+        final WebSocketHub<LoadSession> hub = newWebSocketHub(ERRORS, SESSIONS)
+            .onConnect((session, connection) -> connection.subscribe("everyone"))
+            .maxOutstanding(256)
+            .build();
+        final Undertow server = Undertow.builder()
+            .addHttpListener(PORT, "0.0.0.0")
+            .setIoThreads(Math.max(2, cores / 2))
+            .setHandler(hub.handler())
+            .build();
+        server.start();
+
+        final XnioWorker worker = Xnio.getInstance().createWorker(OptionMap.builder()
+            .set(Options.WORKER_IO_THREADS, Math.max(2, cores / 2))
+            .set(Options.TCP_NODELAY, true)
+            .getMap());
+        final var pool = new DefaultByteBufferPool(false, 4096);
+        final var latency = new LatencyHistogram();
+        final var received = new LongAdder();
+
+        final long connectStart = System.nanoTime();
+        final List<IoFuture<WebSocketChannel>> pending = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            final String cookie = "session=user" + i;
+            final URI uri = URI.create("ws://127.0.0." + (1 + i % addresses) + ":" + PORT + "/ws");
+            pending.add(WebSocketClient.connectionBuilder(worker, pool, uri)
+                .setClientNegotiation(new WebSocketClientNegotiation(null, null) {
+                    @Override
+                    public void beforeRequest(final Map<String, List<String>> headers) {
+                        headers.put("Cookie", List.of(cookie));
+                    }
+                })
+                .connect());
+            if (pending.size() == 1000 || i == connections - 1) {
+                for (final IoFuture<WebSocketChannel> future : pending) {
+                    listen(future.get(), latency, received);
+                }
+                pending.clear();
+            }
+        }
+        System.out.printf("Connected %d clients in %d ms, hub has %d%n", connections
+            , (System.nanoTime() - connectStart) / 1_000_000, hub.connectionCount());
+
+        // Warm up, then measure
+        runBroadcasts(hub, Math.min(20, broadcasts), received);
+        latency.reset();
+        received.reset();
+
+        final long start = System.nanoTime();
+        final long expected = runBroadcasts(hub, broadcasts, received);
+        final long elapsed = System.nanoTime() - start;
+
+        final var snapshot = latency.snapshot();
+        System.out.printf("Delivered %d of %d messages in %d ms, %.0f deliveries/s%n", received.sum(), expected
+            , elapsed / 1_000_000, received.sum() * 1e9 / elapsed);
+        System.out.printf("Latency us p50=%d p99=%d p99.9=%d max=%d mean=%.0f%n"
+            , snapshot.valueAtPercentile(50) / 1000, snapshot.valueAtPercentile(99) / 1000
+            , snapshot.valueAtPercentile(99.9) / 1000, snapshot.valueAtPercentile(100) / 1000, snapshot.mean() / 1000);
+        System.out.printf("Connections left after the run: %d (slow consumers are evicted)%n", hub.connectionCount());
+
+        hub.close();
+        server.stop();
+        worker.shutdown();
+    }
+
+    private static void listen(final WebSocketChannel channel, final LatencyHistogram latency, final LongAdder received) {
+        channel.getReceiveSetter().set(new AbstractReceiveListener() {
+            @Override
+            protected void onFullTextMessage(final WebSocketChannel channel, final BufferedTextMessage message) {
+                final String data = message.getData();
+                latency.record(System.nanoTime() - Long.parseLong(data.substring(0, data.indexOf(':'))));
+                received.increment();
+            }
+        });
+        channel.resumeReceives();
+    }
+
+    // Sends one broadcast at a time and waits, up to a second, for it to arrive everywhere
+    private static long runBroadcasts(final WebSocketHub<LoadSession> hub, final int count, final LongAdder received)
+            throws InterruptedException {
+        final String padding = ":" + "x".repeat(200);
+        long expected = 0;
+        for (int i = 0; i < count; i++) {
+            expected += hub.broadcast("everyone", System.nanoTime() + padding);
+            final long deadline = System.nanoTime() + 1_000_000_000L;
+            while (received.sum() < expected && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        return expected;
+    }
+
+}
@@ -0,0 +1,122 @@
+package extension.undertow.benchmark.load;
+
+import extension.undertow.metrics.LatencyHistogram;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// Drives a server with either a fixed number of users that each wait for their response before
+// sending the next request (closed loop), or a fixed arrival rate that doesn't care how the server
+// is doing (open loop). Latencies are recorded in microseconds.
+//
+// A closed loop stops sending while the server stalls, so a stall shows up as one slow request
+// instead of all the requests that should have been sent in the meantime. That is corrected the
+// same way HdrHistogram does it: a sample larger than the expected interval is backfilled with the
+// samples that were missed. The open loop measures from the moment a request was scheduled to be
+// sent instead of when it actually left, which avoids the problem altogether.
+final class LoadGenerator {
+
+    record Result(LatencyHistogram.Snapshot latency, long requests, long errors, HttpClient.Version version) {}
+
+    private final HttpClient client;
+    private final Supplier<HttpRequest> requests;
+
+    LoadGenerator(final HttpClient client, final Supplier<HttpRequest> requests) {
+        this.client = client;
+        this.requests = requests;
+    }
+
+    Result closedLoop(final int users, final Duration warmup, final Duration duration) throws InterruptedException {
+        final double expectedInterval = runClosedLoop(users, warmup, new LatencyHistogram(), 0, new LongAdder(), new AtomicLong()).mean();
+
+        final var histogram = new LatencyHistogram();
+        final var errors = new LongAdder();
+        final var version = new AtomicLong(-1);
+        final var snapshot = runClosedLoop(users, duration, histogram, (long) Math.max(1, expectedInterval), errors, version);
+        return new Result(snapshot, snapshot.count(), errors.sum(), toVersion(version.get()));
+    }
+
+    Result openLoop(final int requestsPerSecond, final int maxOutstanding, final Duration warmup
+            , final Duration duration) throws InterruptedException {
+        runOpenLoop(requestsPerSecond, maxOutstanding, warmup, new LatencyHistogram(), new LongAdder(), new AtomicLong());
+
+        final var histogram = new LatencyHistogram();
+        final var errors = new LongAdder();
+        final var version = new AtomicLong(-1);
+        runOpenLoop(requestsPerSecond, maxOutstanding, duration, histogram, errors, version);
+        final var snapshot = histogram.snapshot();
+        return new Result(snapshot, snapshot.count(), errors.sum(), toVersion(version.get()));
+    }
+
+    private LatencyHistogram.Snapshot runClosedLoop(final int users, final Duration duration, final LatencyHistogram histogram
+            , final long expectedInterval, final LongAdder errors, final AtomicLong version) throws InterruptedException {
+        final long deadline = System.nanoTime() + duration.toNanos();
+        final var threads = new ArrayList<Thread>(users);
+        for (int i = 0; i < users; i++) {
+            final var thread = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    final long start = System.nanoTime();
+                    try {
+                        final var response = client.send(requests.get(), BodyHandlers.discarding());
+                        if (response.statusCode() >= 400) errors.increment();
+                        version.set(response.version().ordinal());
+                    } catch (final Exception e) {
+                        errors.increment();
+                    }
+                    recordCorrected(histogram, NANOSECONDS.toMicros(System.nanoTime() - start), expectedInterval);
+                }
+            }, "load-user-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (final var thread : threads) thread.join();
+        return histogram.snapshot();
+    }
+
+    private void runOpenLoop(final int requestsPerSecond, final int maxOutstanding, final Duration duration
+            , final LatencyHistogram histogram, final LongAdder errors, final AtomicLong version) throws InterruptedException {
+        final long interval = 1_000_000_000L / requestsPerSecond;
+        final long start = System.nanoTime();
+        final long deadline = start + duration.toNanos();
+        final var outstanding = new Semaphore(maxOutstanding);
+
+        for (long intended = start; intended < deadline; intended += interval) {
+            final long sleep = intended - System.nanoTime();
+            if (sleep > 0) NANOSECONDS.sleep(sleep);
+
+            final long scheduled = intended;
+            // When the limit is reached the wait is charged to the requests that are late, as it should be
+            outstanding.acquire();
+            client.sendAsync(requests.get(), BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                if (failure != null || response.statusCode() >= 400) errors.increment();
+                if (response != null) version.set(response.version().ordinal());
+                histogram.record(NANOSECONDS.toMicros(System.nanoTime() - scheduled));
+                outstanding.release();
+            });
+        }
+        outstanding.acquire(maxOutstanding);
+        outstanding.release(maxOutstanding);
+    }
+
+    private static void recordCorrected(final LatencyHistogram histogram, final long value, final long expectedInterval) {
+        histogram.record(value);
+        if (expectedInterval <= 0 || value <= expectedInterval) return;
+        for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+            histogram.record(missed);
+        }
+    }
+
+    private static HttpClient.Version toVersion(final long ordinal) {
+        return ordinal == -1 ? null : HttpClient.Version.values()[(int) ordinal];
+    }
+
+}
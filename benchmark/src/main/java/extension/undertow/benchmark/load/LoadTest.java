@@ -0,0 +1,217 @@
+package extension.undertow.benchmark.load;
+
+import extension.undertow.session.Session;
+import extension.undertow.session.TokenSessionStore;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Function;
+
+import static extension.undertow.model.ContentType.application_json;
+import static extension.undertow.server.Handlers.*;
+import static extension.undertow.server.HttpServer.newHttpServer;
+import static extension.undertow.server.RequestParser.getMandatoryString;
+import static extension.undertow.server.RequestParser.parseForm;
+import static extension.undertow.server.ResponseBuilder.respond;
+import static extension.undertow.session.SessionHandlers.accessDenied;
+import static extension.undertow.session.SessionHandlers.hasSession;
+import static io.undertow.util.Headers.SET_COOKIE;
+import static io.undertow.util.Methods.GET;
+import static io.undertow.util.StatusCodes.OK;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// End-to-end load test against a server started with HttpServer.newHttpServer on loopback. Every
+// scenario is run over HTTP/1.1 keep-alive and HTTP/2, in both closed and open loop. The p50, p99
+// and p999 latencies are compared with a stored baseline and the process exits with status 1 when
+// any of them regressed by more than the tolerance. Without a baseline the results are recorded.
+// A run also fails when the client did not get the HTTP version it asked for, so HTTP/1.1 numbers
+// are never recorded as HTTP/2.
+//
+// The gate is not part of the build, bob only compiles this module. Run it by hand or from CI and
+// fail the job on the exit status.
+//
+// Arguments: [--baseline file] [--record] [--duration seconds] [--tolerance fraction]
+//            [--users count] [--rate requests-per-second]
+public enum LoadTest {;
+
+    public record TestSession(String userId, String csrfToken) implements Session {}
+
+    private static final TokenSessionStore<TestSession> SESSIONS = new TokenSessionStore<>() {
+        public String getSessionValidationKey() {
+            return "load-test-validation-key-that-is-long-enough";
+        }
+        public Class<TestSession> getSessionClass() {
+            return TestSession.class;
+        }
+    };
+
+    private static final double[] PERCENTILES = { 50, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES = { "p50", "p99", "p999" };
+    // Differences below this many microseconds are noise on loopback, never report them as regressions
+    private static final long MINIMUM_REGRESSION_MICROS = 200;
+
+    private record Scenario(String name, Function<URI, HttpRequest.Builder> request) {}
+
+    public static void main(final String... args) throws Exception {
+        final int status = run(Settings.parse(args));
+        if (status != 0) System.exit(status);
+    }
+
+    // Returns the exit status, the server is stopped before the caller exits
+    private static int run(final Settings settings) throws Exception {
+        final Undertow server = newHttpServer("127.0.0.1", 0, true, newHandler());
+        server.start();
+        try {
+            final var address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+            final var base = URI.create("http://127.0.0.1:" + address.getPort());
+            final String cookie = "session=" + newSessionToken();
+
+            final var scenarios = List.of(
+                new Scenario("static-page", uri -> HttpRequest.newBuilder(uri.resolve("/page")).GET()),
+                new Scenario("session-json", uri -> HttpRequest.newBuilder(uri.resolve("/api/me"))
+                    .header("Cookie", cookie).GET()),
+                new Scenario("form-post", uri -> HttpRequest.newBuilder(uri.resolve("/form"))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(BodyPublishers.ofString("name=alice&email=alice%40example.com&message=hello+world")))
+            );
+
+            final var results = new Properties();
+            final var failures = new ArrayList<String>();
+            for (final var version : List.of(HttpClient.Version.HTTP_1_1, HttpClient.Version.HTTP_2)) {
+                final var client = HttpClient.newBuilder().version(version).build();
+                for (final var scenario : scenarios) {
+                    final var generator = new LoadGenerator(client, () -> scenario.request.apply(base).build());
+                    final String prefix = scenario.name + "." + (version == HttpClient.Version.HTTP_2 ? "h2" : "h1");
+                    report(results, failures, prefix + ".closed", version,
+                        generator.closedLoop(settings.users, settings.warmup, settings.duration));
+                    report(results, failures, prefix + ".open", version,
+                        generator.openLoop(settings.rate, settings.users * 4, settings.warmup, settings.duration));
+                }
+            }
+            if (!failures.isEmpty()) {
+                failures.forEach(System.out::println);
+                return 1;
+            }
+
+            if (settings.record || !Files.exists(settings.baseline)) {
+                store(results, settings.baseline);
+                System.out.println("Recorded baseline in " + settings.baseline);
+                return 0;
+            }
+            final var regressions = compare(load(settings.baseline), results, settings.tolerance);
+            regressions.forEach(System.out::println);
+            return regressions.isEmpty() ? 0 : 1;
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static HttpHandler newHandler() {
+        final String page = "<!DOCTYPE html><html><head><title>Load test</title></head><body>"
+            + "<p>Lorem ipsum dolor sit amet</p>".repeat(200) + "</body></html>";
+        return routing()
+            .get("/page", staticHtml(page))
+            .get("/api/me", hasSession(SESSIONS, accessDenied("Not logged in"), (session, exchange) ->
+                respond(exchange).status(OK).contentType(application_json)
+                    .send("{\"userId\":\"" + session.userId() + "\"}")))
+            .post("/form", usingThread(exchange -> {
+                final var form = parseForm(exchange);
+                respond(exchange).status(OK).contentType(application_json)
+                    .send("{\"name\":\"" + getMandatoryString(form, "name") + "\"}");
+            }));
+    }
+
+    private static String newSessionToken() {
+        final var exchange = new HttpServerExchange(null);
+        exchange.setRequestMethod(GET);
+        SESSIONS.setSession(exchange, new TestSession("1234567890", "csrf-token-value"));
+        final String cookie = exchange.getResponseHeaders().getFirst(SET_COOKIE);
+        return cookie.substring(cookie.indexOf('=') + 1, cookie.indexOf(';'));
+    }
+
+    private static void report(final Properties results, final List<String> failures, final String name
+            , final HttpClient.Version expected, final LoadGenerator.Result result) {
+        if (result.version() != expected)
+            failures.add(format("%s: asked for %s but the server answered with %s", name, expected, result.version()));
+        final var latency = result.latency();
+        System.out.println(format("%-28s %-8s requests=%-8d errors=%-6d p50=%dus p99=%dus p999=%dus",
+            name, result.version(), result.requests(), result.errors(), latency.valueAtPercentile(50),
+            latency.valueAtPercentile(99), latency.valueAtPercentile(99.9)));
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            results.setProperty(name + "." + PERCENTILE_NAMES[i], Long.toString(latency.valueAtPercentile(PERCENTILES[i])));
+        }
+        if (result.errors() > 0) results.setProperty(name + ".errors", Long.toString(result.errors()));
+    }
+
+    private static List<String> compare(final Properties baseline, final Properties current, final double tolerance) {
+        final var regressions = new ArrayList<String>();
+        for (final String key : current.stringPropertyNames()) {
+            if (key.endsWith(".errors")) {
+                regressions.add(format("%s: %s requests failed", key, current.getProperty(key)));
+                continue;
+            }
+            final String expected = baseline.getProperty(key);
+            if (expected == null) continue;
+            final long before = Long.parseLong(expected);
+            final long now = Long.parseLong(current.getProperty(key));
+            if (now > before * (1 + tolerance) && now - before > MINIMUM_REGRESSION_MICROS)
+                regressions.add(format("%s regressed from %dus to %dus", key, before, now));
+        }
+        return regressions;
+    }
+
+    private static Properties load(final Path file) throws IOException {
+        final var properties = new Properties();
+        try (final Reader in = Files.newBufferedReader(file, UTF_8)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    private static void store(final Properties properties, final Path file) throws IOException {
+        try (final Writer out = Files.newBufferedWriter(file, UTF_8)) {
+            properties.store(out, "Load test latency baseline in microseconds");
+        }
+    }
+
+    private record Settings(Path baseline, boolean record, Duration warmup, Duration duration
+            , double tolerance, int users, int rate) {
+
+        static Settings parse(final String... args) {
+            Path baseline = Path.of("load-baseline.properties");
+            boolean record = false;
+            int seconds = 10, users = 16, rate = 2000;
+            double tolerance = 0.25;
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--baseline" -> baseline = Path.of(args[++i]);
+                    case "--record" -> record = true;
+                    case "--duration" -> seconds = Integer.parseInt(args[++i]);
+                    case "--tolerance" -> tolerance = Double.parseDouble(args[++i]);
+                    case "--users" -> users = Integer.parseInt(args[++i]);
+                    case "--rate" -> rate = Integer.parseInt(args[++i]);
+                    default -> throw new IllegalArgumentException("Unknown argument " + args[i]);
+                }
+            }
+            return new Settings(baseline, record, Duration.ofSeconds(Math.max(1, seconds / 5)),
+                Duration.ofSeconds(seconds), tolerance, users, rate);
+        }
+    }
+
+}
@@ -5,8 +5,14 @@ import io.undertow.server.HttpServerExchange;
 import static extension.undertow.server.ResponseBuilder.respondError;
 import static io.undertow.util.StatusCodes.FORBIDDEN;
 
+// Without a stack trace, see InvalidInput
 public final class AccessDenied extends Exception implements HttpError {
 
+    public static final AccessDenied
+        MISSING_CSRF_TOKEN = new AccessDenied("Missing CSRF Token"),
+        INVALID_CSRF_TOKEN = new AccessDenied("Invalid CSRF Token"),
+        INVALID_API_KEY = new AccessDenied("Invalid API key");
+
     private final int errorCode;
     public AccessDenied() {
         this(FORBIDDEN, "Forbidden");
@@ -15,7 +21,7 @@ public final class AccessDenied extends Exception implements HttpError {
         this(FORBIDDEN, message);
     }
     public AccessDenied(final int errorCode, final String message) {
-        super(message);
+        super(message, null, false, false);
         this.errorCode = errorCode;
     }
 
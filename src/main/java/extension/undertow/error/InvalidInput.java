@@ -5,8 +5,13 @@ import io.undertow.server.HttpServerExchange;
 import static extension.undertow.server.ResponseBuilder.respondError;
 import static io.undertow.util.StatusCodes.BAD_REQUEST;
 
+// Thrown for every bad parameter, so under bot traffic these are created in large numbers. They are
+// only used to produce a 4xx response and never logged with a trace, so no stack trace is captured.
+// The instances with a constant message are shared, they are immutable because suppression is off.
 public final class InvalidInput extends Exception implements HttpError {
 
+    public static final InvalidInput INVALID_SESSION = new InvalidInput("Invalid session");
+
     private final int errorCode;
     public InvalidInput(final String message) {
         this(BAD_REQUEST, message, null);
@@ -18,7 +23,7 @@ public final class InvalidInput extends Exception implements HttpError {
         this(errorCode, message, null);
     }
     public InvalidInput(final int errorCode, final String message, final Throwable cause) {
-        super(message, cause);
+        super(message, cause, false, false);
         this.errorCode = errorCode;
     }
 
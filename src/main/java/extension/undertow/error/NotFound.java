@@ -6,12 +6,19 @@ import java.io.IOException;
 
 import static io.undertow.util.StatusCodes.NOT_FOUND;
 
+// Without a stack trace, see InvalidInput. IOException has no constructor that turns off suppression
+// so there is no shared instance, instead filling in the stack trace is skipped.
 public final class NotFound extends IOException implements HttpError {
     public NotFound() {}
     public NotFound(final String message) {
         super(message);
     }
 
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
     @Override
     public void processExchange(final HttpServerExchange exchange) {
         exchange.setStatusCode(NOT_FOUND);
@@ -5,13 +5,17 @@ import io.undertow.server.HttpServerExchange;
 import static extension.undertow.server.ResponseBuilder.respondError;
 import static io.undertow.util.StatusCodes.FORBIDDEN;
 
+// Without a stack trace, see InvalidInput
 public final class NotLoggedIn extends Exception implements HttpError {
 
+    public static final NotLoggedIn NOT_LOGGED_IN = new NotLoggedIn();
+
     private final int errorCode;
     public NotLoggedIn() {
         this(FORBIDDEN);
     }
     public NotLoggedIn(final int errorCode) {
+        super(null, null, false, false);
         this.errorCode = errorCode;
     }
 
@@ -6,10 +6,12 @@ import static extension.undertow.server.ResponseBuilder.respond;
 import static io.undertow.util.Headers.LOCATION;
 import static io.undertow.util.StatusCodes.FOUND;
 
+// Without a stack trace, see InvalidInput
 public final class Redirect extends Exception implements HttpError {
 
     private final String header;
     public Redirect(final String header) {
+        super(null, null, false, false);
         this.header = header;
     }
 
@@ -0,0 +1,31 @@
+package extension.undertow.error;
+
+import io.undertow.server.HttpServerExchange;
+
+import static extension.undertow.server.ResponseBuilder.respondError;
+import static io.undertow.util.StatusCodes.REQUEST_ENTITY_TOO_LARGE;
+
+// Without a stack trace, see InvalidInput. The rest of the body is not read, so the connection is
+// closed after the response instead of being reused.
+public final class RequestTooLarge extends Exception implements HttpError {
+
+    private final long maxBytes;
+    public RequestTooLarge(final long maxBytes) {
+        super("Request body is larger than " + maxBytes + " bytes", null, false, false);
+        this.maxBytes = maxBytes;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public void processExchange(final HttpServerExchange exchange) {
+        exchange.setPersistent(false);
+        respondError(exchange, REQUEST_ENTITY_TOO_LARGE, REQUEST_ENTITY_TOO_LARGE, getMessage());
+    }
+
+    public boolean isServerError() {
+        return false;
+    }
+}
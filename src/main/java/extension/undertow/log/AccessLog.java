@@ -0,0 +1,344 @@
+package extension.undertow.log;
+
+import io.undertow.server.Connectors;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static io.undertow.util.Headers.X_FORWARDED_FOR;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// Access log that keeps all formatting and I/O off the request thread. At exchange completion a
+// compact record is copied into a preallocated ring buffer, the fields are references to objects
+// the exchange already holds so nothing is allocated. A background thread drains the buffer in
+// batches and writes to a file that is rotated when it grows past the configured size. When the
+// buffer is full the record is dropped and counted instead of blocking the request. Records that
+// could not be formatted or written are counted too and the exception goes to the error handler,
+// the writer never stops. File sizes for rotation are counted in UTF-8 bytes.
+//
+// The client address is the peer of the connection. X-Forwarded-For is only used when the peer is
+// one of the trustedProxies, and then the rightmost address that is not a trusted proxy is logged,
+// the entries left of it are whatever the client chose to send.
+public final class AccessLog implements ExchangeCompletionListener, Closeable {
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter
+        .ofPattern("dd/MMM/yyyy:HH:mm:ss Z").withZone(ZoneOffset.UTC);
+
+    // Errors happen on the writer thread, onError is where they end up, usually a logger
+    public static Builder newAccessLog(final Path file, final Consumer<Exception> onError) {
+        return new Builder(file, onError);
+    }
+
+    public static final class Builder {
+        private final Path file;
+        private int capacity = 65536;
+        private int batchSize = 1024;
+        private long maxFileSize = 100L * 1024 * 1024;
+        private int maxFiles = 10;
+        private final Consumer<Exception> onError;
+        private Set<String> trustedProxies = Set.of();
+        private long closeTimeoutMillis = 5000;
+
+        private Builder(final Path file, final Consumer<Exception> onError) {
+            if (onError == null) throw new IllegalArgumentException("Missing error handler");
+            this.file = file;
+            this.onError = onError;
+        }
+        public Builder capacity(final int capacity) {
+            if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two");
+            this.capacity = capacity;
+            return this;
+        }
+        public Builder batchSize(final int batchSize) {
+            if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be positive");
+            this.batchSize = batchSize;
+            return this;
+        }
+        public Builder maxFileSize(final long maxFileSize) {
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+        public Builder maxFiles(final int maxFiles) {
+            this.maxFiles = maxFiles;
+            return this;
+        }
+        // Addresses as returned by InetAddress.getHostAddress()
+        public Builder trustedProxies(final String... addresses) {
+            this.trustedProxies = Set.of(addresses);
+            return this;
+        }
+        // How long close() waits for the remaining records to be written
+        public Builder closeTimeout(final Duration timeout) {
+            this.closeTimeoutMillis = timeout.toMillis();
+            return this;
+        }
+        public AccessLog start() throws IOException {
+            return new AccessLog(this);
+        }
+    }
+
+    private final Path file;
+    private final int batchSize;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final Set<String> trustedProxies;
+    private final Consumer<Exception> onError;
+    private final long closeTimeoutMillis;
+
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final AtomicLongArray published;
+    private final long[] timestamps;
+    private final long[] durations;
+    private final long[] bytesSent;
+    private final int[] statusCodes;
+    private final HttpString[] methods;
+    private final HttpString[] protocols;
+    private final String[] uris;
+    private final String[] forwardedFor;
+    private final InetSocketAddress[] sources;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private Writer writer;
+    private long fileSize;
+
+    private AccessLog(final Builder builder) throws IOException {
+        this.file = builder.file;
+        this.batchSize = builder.batchSize;
+        this.maxFileSize = builder.maxFileSize;
+        this.maxFiles = builder.maxFiles;
+        this.trustedProxies = builder.trustedProxies;
+        this.onError = builder.onError;
+        this.closeTimeoutMillis = builder.closeTimeoutMillis;
+
+        this.mask = builder.capacity - 1;
+        this.published = new AtomicLongArray(builder.capacity);
+        this.timestamps = new long[builder.capacity];
+        this.durations = new long[builder.capacity];
+        this.bytesSent = new long[builder.capacity];
+        this.statusCodes = new int[builder.capacity];
+        this.methods = new HttpString[builder.capacity];
+        this.protocols = new HttpString[builder.capacity];
+        this.uris = new String[builder.capacity];
+        this.forwardedFor = new String[builder.capacity];
+        this.sources = new InetSocketAddress[builder.capacity];
+
+        this.writer = openFile();
+        this.fileSize = Files.size(file);
+        this.writerThread = new Thread(this::drainLoop, "access-log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public HttpHandler logAccess(final HttpHandler next) {
+        return exchange -> {
+            if (exchange.getRequestStartTime() == -1) Connectors.setRequestStartTime(exchange);
+            exchange.addExchangeCompleteListener(this);
+            next.handleRequest(exchange);
+        };
+    }
+
+    public long droppedRecords() {
+        return dropped.sum();
+    }
+    // Records that were taken from the buffer but could not be written to the file
+    public long failedRecords() {
+        return failed.sum();
+    }
+
+    @Override
+    public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+        try {
+            append(exchange);
+        } finally {
+            nextListener.proceed();
+        }
+    }
+
+    private void append(final HttpServerExchange exchange) {
+        final long sequence = claimSlot();
+        if (sequence == -1) {
+            dropped.increment();
+            return;
+        }
+        final int slot = (int) (sequence & mask);
+        timestamps[slot] = System.currentTimeMillis();
+        durations[slot] = NANOSECONDS.toMicros(System.nanoTime() - exchange.getRequestStartTime());
+        bytesSent[slot] = exchange.getResponseBytesSent();
+        statusCodes[slot] = exchange.getStatusCode();
+        methods[slot] = exchange.getRequestMethod();
+        protocols[slot] = exchange.getProtocol();
+        uris[slot] = exchange.getRequestURI();
+        sources[slot] = exchange.getSourceAddress();
+        forwardedFor[slot] = trustedProxies.isEmpty() ? null : exchange.getRequestHeaders().getFirst(X_FORWARDED_FOR);
+        published.lazySet(slot, sequence + 1);
+    }
+
+    private long claimSlot() {
+        while (true) {
+            final long sequence = tail.get();
+            if (sequence - head > mask) return -1;
+            if (tail.compareAndSet(sequence, sequence + 1)) return sequence;
+        }
+    }
+
+    private void drainLoop() {
+        final var line = new StringBuilder(256);
+        while (running || head != tail.get()) {
+            if (drainBatch(line) == 0) {
+                try {
+                    writer.flush();
+                } catch (final IOException e) {
+                    onError.accept(e);
+                }
+                LockSupport.parkNanos(MILLISECONDS.toNanos(1));
+            }
+        }
+        try {
+            writer.close();
+        } catch (final IOException e) {
+            onError.accept(e);
+        }
+    }
+
+    // Every record taken from the buffer counts as handled, a failed write is counted and reported
+    // but never retried, so head always moves forward and no line is written twice
+    private int drainBatch(final StringBuilder line) {
+        long sequence = head;
+        int count = 0;
+        Exception failure = null;
+        while (count < batchSize) {
+            final int slot = (int) (sequence & mask);
+            if (published.get(slot) != sequence + 1) break;
+
+            line.setLength(0);
+            try {
+                format(slot, line);
+                writer.append(line);
+                fileSize += utf8Length(line);
+            } catch (final IOException | RuntimeException e) {
+                failed.increment();
+                failure = e;
+            }
+
+            methods[slot] = null;
+            protocols[slot] = null;
+            uris[slot] = null;
+            forwardedFor[slot] = null;
+            sources[slot] = null;
+            sequence++;
+            count++;
+        }
+        head = sequence;
+        if (failure != null) onError.accept(failure);
+        if (fileSize >= maxFileSize) rotate();
+        return count;
+    }
+
+    private void format(final int slot, final StringBuilder line) {
+        line.append(clientAddress(forwardedFor[slot], sources[slot]))
+            .append(" - - [").append(TIMESTAMP.format(Instant.ofEpochMilli(timestamps[slot]))).append("] \"")
+            .append(methods[slot]).append(' ').append(uris[slot]).append(' ').append(protocols[slot])
+            .append("\" ").append(statusCodes[slot]).append(' ').append(bytesSent[slot])
+            .append(' ').append(durations[slot]).append('\n');
+    }
+
+    private static long utf8Length(final CharSequence line) {
+        long length = 0;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c < 0x80) length += 1;
+            else if (c < 0x800) length += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < line.length() && Character.isLowSurrogate(line.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else length += 3;
+        }
+        return length;
+    }
+
+    private String clientAddress(final String forwardedFor, final InetSocketAddress source) {
+        if (source == null) return "-";
+        final String peer = source.getAddress() == null ? source.getHostString() : source.getAddress().getHostAddress();
+        if (forwardedFor == null || !trustedProxies.contains(peer)) return peer;
+        String client = peer;
+        int end = forwardedFor.length();
+        while (end > 0) {
+            final int comma = forwardedFor.lastIndexOf(',', end - 1);
+            final String entry = forwardedFor.substring(comma + 1, end).trim();
+            if (entry.isEmpty()) break;
+            client = entry;
+            if (!trustedProxies.contains(entry)) break;
+            end = comma == -1 ? 0 : comma;
+        }
+        return client;
+    }
+
+    private Writer openFile() throws IOException {
+        return Files.newBufferedWriter(file, UTF_8, CREATE, APPEND);
+    }
+
+    // The current file is moved while it is still open, the open writer keeps writing into the
+    // moved file until the new one is open. When anything fails the old writer stays in use and
+    // rotation is tried again after another maxFileSize bytes.
+    private void rotate() {
+        try {
+            writer.flush();
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                final Path source = rotated(i);
+                if (Files.exists(source)) Files.move(source, rotated(i + 1), REPLACE_EXISTING);
+            }
+            Files.move(file, rotated(1), REPLACE_EXISTING);
+            final Writer next = openFile();
+            final Writer previous = writer;
+            writer = next;
+            previous.close();
+        } catch (final IOException e) {
+            onError.accept(e);
+        } finally {
+            fileSize = 0;
+        }
+    }
+
+    private Path rotated(final int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(closeTimeoutMillis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
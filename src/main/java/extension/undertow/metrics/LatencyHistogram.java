@@ -0,0 +1,100 @@
+package extension.undertow.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-bucketed histogram in the style of HdrHistogram. Every power of two is split into 8 linear
+// sub-buckets, which bounds the relative error of any reported value to 12.5%. Counts are kept in
+// per-thread stripes so concurrent writers don't fight over the same cache lines, recording is
+// lock-free and never allocates.
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private static final int SUM = BUCKET_COUNT;
+    private static final int ROW = BUCKET_COUNT + 1;
+    private static final int STRIPES = stripeCount();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * ROW);
+
+    public void record(final long value) {
+        final long clamped = Math.max(0, value);
+        final int base = stripe() * ROW;
+        cells.getAndIncrement(base + bucketOf(clamped));
+        cells.getAndAdd(base + SUM, clamped);
+    }
+
+    public Snapshot snapshot() {
+        final long[] buckets = new long[BUCKET_COUNT];
+        long count = 0, sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            final int base = stripe * ROW;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                final long value = cells.get(base + bucket);
+                buckets[bucket] += value;
+                count += value;
+            }
+            sum += cells.get(base + SUM);
+        }
+        return new Snapshot(buckets, count, sum);
+    }
+
+    public void reset() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+
+    public static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    public static long upperBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    private static int stripe() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1));
+    }
+
+    private static int stripeCount() {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        return Math.min(16, Integer.highestOneBit(Math.max(1, cores - 1)) << 1);
+    }
+
+    public record Snapshot(long[] buckets, long count, long sum) {
+
+        public long countAtOrBelow(final long value) {
+            long total = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                if (upperBoundOf(bucket) > value) break;
+                total += buckets[bucket];
+            }
+            return total;
+        }
+
+        public long valueAtPercentile(final double percentile) {
+            if (count == 0) return 0;
+            final long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+            long total = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                total += buckets[bucket];
+                if (total >= target) return upperBoundOf(bucket);
+            }
+            return upperBoundOf(BUCKET_COUNT - 1);
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+
+}
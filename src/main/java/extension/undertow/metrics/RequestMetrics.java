@@ -0,0 +1,149 @@
+package extension.undertow.metrics;
+
+import io.undertow.server.Connectors;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import io.undertow.util.PathTemplateMatch;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static extension.undertow.server.ResponseBuilder.respond;
+import static io.undertow.util.Methods.*;
+import static io.undertow.util.StatusCodes.OK;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// Records latency per route template and method, response counts per status code and the number of
+// requests in flight. Place the handler outside of the routing handler, the route template is read
+// from the PathTemplateMatch attachment once the exchange completes. Latencies are recorded in
+// microseconds. Looking up an existing route and recording into it does not allocate. The method
+// comes from the client, anything outside the standard set is recorded as OTHER so a client can't
+// grow the maps or the label cardinality.
+public final class RequestMetrics implements ExchangeCompletionListener {
+
+    private static final String UNMATCHED_ROUTE = "unmatched";
+    private static final double[] BUCKET_BOUNDS_SECONDS =
+        { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+    private static final int MAX_STATUS_CODE = 600;
+    private static final HttpString OTHER_METHOD = new HttpString("OTHER");
+    private static final Set<HttpString> KNOWN_METHODS = Set.of(GET, HEAD, POST, PUT, PATCH, DELETE, OPTIONS);
+
+    private final Map<String, Map<HttpString, LatencyHistogram>> latencies = new ConcurrentHashMap<>();
+    private final Map<HttpString, LongAdder> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder[] statusCodes = new LongAdder[MAX_STATUS_CODE];
+
+    public RequestMetrics() {
+        for (int i = 0; i < statusCodes.length; i++) {
+            statusCodes[i] = new LongAdder();
+        }
+    }
+
+    public HttpHandler recordMetrics(final HttpHandler next) {
+        return exchange -> {
+            if (exchange.getRequestStartTime() == -1) Connectors.setRequestStartTime(exchange);
+            inFlightCounter(methodOf(exchange)).increment();
+            exchange.addExchangeCompleteListener(this);
+            next.handleRequest(exchange);
+        };
+    }
+
+    public HttpHandler metricsEndpoint() {
+        return exchange -> respond(exchange).status(OK)
+            .contentType("text/plain; version=0.0.4; charset=utf-8")
+            .send(toPrometheus());
+    }
+
+    @Override
+    public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+        try {
+            final long micros = NANOSECONDS.toMicros(System.nanoTime() - exchange.getRequestStartTime());
+            final HttpString method = methodOf(exchange);
+            histogramFor(routeOf(exchange), method).record(micros);
+            inFlightCounter(method).decrement();
+
+            final int status = exchange.getStatusCode();
+            if (status >= 0 && status < MAX_STATUS_CODE) statusCodes[status].increment();
+        } finally {
+            nextListener.proceed();
+        }
+    }
+
+    public LatencyHistogram.Snapshot snapshot(final String route, final HttpString method) {
+        final var methods = latencies.get(route);
+        final var histogram = methods == null ? null : methods.get(method);
+        return histogram == null ? null : histogram.snapshot();
+    }
+
+    public String toPrometheus() {
+        final var out = new StringBuilder(4096);
+
+        out.append("# HELP http_request_duration_seconds Time spent handling requests\n");
+        out.append("# TYPE http_request_duration_seconds histogram\n");
+        for (final var route : latencies.entrySet()) {
+            for (final var method : route.getValue().entrySet()) {
+                final var snapshot = method.getValue().snapshot();
+                final String labels = "method=\"" + escapeLabel(method.getKey().toString())
+                    + "\",route=\"" + escapeLabel(route.getKey()) + "\"";
+                for (final double bound : BUCKET_BOUNDS_SECONDS) {
+                    final long count = snapshot.countAtOrBelow((long) (bound * 1_000_000));
+                    out.append("http_request_duration_seconds_bucket{").append(labels)
+                       .append(",le=\"").append(bound).append("\"} ").append(count).append('\n');
+                }
+                out.append("http_request_duration_seconds_bucket{").append(labels)
+                   .append(",le=\"+Inf\"} ").append(snapshot.count()).append('\n');
+                out.append("http_request_duration_seconds_sum{").append(labels).append("} ")
+                   .append(snapshot.sum() / 1_000_000.0).append('\n');
+                out.append("http_request_duration_seconds_count{").append(labels).append("} ")
+                   .append(snapshot.count()).append('\n');
+            }
+        }
+
+        out.append("# HELP http_responses_total Responses sent by status code\n");
+        out.append("# TYPE http_responses_total counter\n");
+        for (int status = 0; status < statusCodes.length; status++) {
+            final long count = statusCodes[status].sum();
+            if (count == 0) continue;
+            out.append("http_responses_total{code=\"").append(status).append("\"} ").append(count).append('\n');
+        }
+
+        out.append("# HELP http_requests_in_flight Requests currently being handled\n");
+        out.append("# TYPE http_requests_in_flight gauge\n");
+        for (final var entry : inFlight.entrySet()) {
+            out.append("http_requests_in_flight{method=\"").append(escapeLabel(entry.getKey().toString()))
+               .append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    private LatencyHistogram histogramFor(final String route, final HttpString method) {
+        var methods = latencies.get(route);
+        if (methods == null) methods = latencies.computeIfAbsent(route, key -> new ConcurrentHashMap<>());
+        final var histogram = methods.get(method);
+        return histogram != null ? histogram : methods.computeIfAbsent(method, key -> new LatencyHistogram());
+    }
+
+    private LongAdder inFlightCounter(final HttpString method) {
+        final var counter = inFlight.get(method);
+        return counter != null ? counter : inFlight.computeIfAbsent(method, key -> new LongAdder());
+    }
+
+    private static String routeOf(final HttpServerExchange exchange) {
+        final var match = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+        return match == null ? UNMATCHED_ROUTE : match.getMatchedTemplate();
+    }
+
+    private static HttpString methodOf(final HttpServerExchange exchange) {
+        final HttpString method = exchange.getRequestMethod();
+        return KNOWN_METHODS.contains(method) ? method : OTHER_METHOD;
+    }
+
+    private static String escapeLabel(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
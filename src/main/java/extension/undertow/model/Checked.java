@@ -0,0 +1,33 @@
+package extension.undertow.model;
+
+import extension.undertow.error.InvalidInput;
+
+import static io.undertow.util.StatusCodes.BAD_REQUEST;
+
+// The outcome of a check that doesn't throw, for callers that would rather branch than catch. Holds
+// either the value or the reason it was rejected, orThrow() turns a rejection into InvalidInput.
+public record Checked<T>(T value, int errorCode, String message) {
+
+    public static <T> Checked<T> valid(final T value) {
+        return new Checked<>(value, 0, null);
+    }
+    public static <T> Checked<T> invalid(final String message) {
+        return invalid(BAD_REQUEST, message);
+    }
+    public static <T> Checked<T> invalid(final int errorCode, final String message) {
+        if (message == null) throw new IllegalArgumentException("An invalid result needs a message");
+        return new Checked<>(null, errorCode, message);
+    }
+
+    public boolean isValid() {
+        return message == null;
+    }
+    public T orElse(final T defaultValue) {
+        return isValid() ? value : defaultValue;
+    }
+    public T orThrow() throws InvalidInput {
+        if (isValid()) return value;
+        throw new InvalidInput(errorCode, message);
+    }
+
+}
@@ -0,0 +1,106 @@
+package extension.undertow.server;
+
+import extension.undertow.server.FileResources.FileResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static extension.undertow.server.ContentHash.hash64;
+import static extension.undertow.server.ContentHash.toHex;
+import static extension.undertow.server.Handlers.loadResource;
+import static extension.undertow.server.MimeTypeMap.toMimeType;
+
+// Maps logical asset paths to URLs that contain a hash of the content, '/app.js' becomes
+// '/app.3f9c1a02be.js'. Because the URL changes whenever the content does, these URLs can be served
+// with IMMUTABLE caching and browsers never revalidate them. Build the manifest once at startup,
+// serve it with Handlers.resourceHandler(manifest, fallback) and pass the HTML through rewrite()
+// before handing it to staticHtml or singlePageApp. HTML files are not fingerprinted, they are the
+// entry points that refer to everything else.
+public final class AssetManifest {
+
+    private static final int HASH_LENGTH = 10;
+
+    public static AssetManifest fingerprintDirectory(final Path root) throws IOException {
+        final Path base = root.toAbsolutePath().normalize();
+        final var manifest = new AssetManifest();
+        try (final var files = Files.walk(base)) {
+            for (final Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                final String logical = "/" + base.relativize(file).toString().replace('\\', '/');
+                manifest.add(logical, Files.readAllBytes(file));
+            }
+        }
+        return manifest;
+    }
+
+    public static AssetManifest fingerprintResources(final String wwwroot, final List<String> paths) throws IOException {
+        final var manifest = new AssetManifest();
+        for (final String path : paths) {
+            final byte[] data = loadResource(wwwroot, path);
+            if (data == null) throw new IOException("Missing resource " + wwwroot + path);
+            manifest.add(path, data);
+        }
+        return manifest;
+    }
+
+    private final Map<String, String> urls = new HashMap<>();
+    private final Map<String, FileResource> assets = new HashMap<>();
+
+    private AssetManifest() {}
+
+    private void add(final String logical, final byte[] data) {
+        final String mimeType = toMimeType(logical);
+        if (mimeType.startsWith("text/html")) return;
+        final String url = fingerprint(logical, toHex(hash64(data, 0, data.length)).substring(0, HASH_LENGTH));
+        urls.put(logical, url);
+        assets.put(url, new FileResource(data, mimeType));
+    }
+
+    private static String fingerprint(final String path, final String hash) {
+        final int slash = path.lastIndexOf('/');
+        final int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1) return path + "." + hash;
+        return path.substring(0, dot) + "." + hash + path.substring(dot);
+    }
+
+    // Returns the fingerprinted URL, or the path itself when it isn't part of the manifest
+    public String url(final String logicalPath) {
+        return urls.getOrDefault(logicalPath, logicalPath);
+    }
+
+    public Map<String, String> urls() {
+        return Map.copyOf(urls);
+    }
+
+    FileResource get(final String url) {
+        return assets.get(url);
+    }
+
+    // Replaces every quoted attribute value that exactly matches a logical path, so both
+    // src="/app.js" and href='/style.css' are rewritten. Other text is copied as is.
+    public String rewrite(final String html) {
+        final var result = new StringBuilder(html.length() + 64);
+        int copied = 0;
+        for (int i = 0; i < html.length(); i++) {
+            final char quote = html.charAt(i);
+            if ((quote != '"' && quote != '\'') || !followsEquals(html, i)) continue;
+            final int end = html.indexOf(quote, i + 1);
+            if (end == -1) break;
+            final String url = urls.get(html.substring(i + 1, end));
+            if (url != null) {
+                result.append(html, copied, i + 1).append(url);
+                copied = end;
+            }
+            i = end;
+        }
+        return result.append(html, copied, html.length()).toString();
+    }
+    private static boolean followsEquals(final String html, int position) {
+        while (--position >= 0 && Character.isWhitespace(html.charAt(position)));
+        return position >= 0 && html.charAt(position) == '=';
+    }
+
+}
@@ -26,4 +26,14 @@ public enum CacheControlStrategy {
     public void apply(final HttpServerExchange exchange) {
         impl.accept(exchange.getResponseHeaders());
     }
+    void apply(final HeaderMap headers) {
+        impl.accept(headers);
+    }
+    // Removes the caching headers of another strategy first, so the response never carries two
+    void replace(final HeaderMap headers) {
+        headers.remove(CACHE_CONTROL);
+        headers.remove(EXPIRES);
+        headers.remove(PRAGMA);
+        impl.accept(headers);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,230 @@
+package extension.undertow.server;
+
+import io.undertow.conduits.DeflatingStreamSinkConduit;
+import io.undertow.conduits.GzipStreamSinkConduit;
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.encoding.ContentEncodingProvider;
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.util.ObjectPool;
+import io.undertow.util.SimpleObjectPool;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.StreamSinkConduit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import static io.undertow.util.Headers.CONTENT_LENGTH;
+import static io.undertow.util.Headers.CONTENT_TYPE;
+
+// Decides which responses are worth compressing. Only content types on the allow-list are
+// compressed, each with its own level, and only when the body is at least the minimum size. Images,
+// PDFs and other formats that are already compressed are left alone. Deflater instances are pooled
+// per level and reused across responses. The time spent compressing and the bytes going in and out
+// are counted, see stats().
+public final class CompressionPolicy {
+
+    public record CompressionStats(long responses, long bytesIn, long bytesOut, long nanos) {
+        public double nanosPerInputByte() {
+            return bytesIn == 0 ? 0 : (double) nanos / bytesIn;
+        }
+        public double ratio() {
+            return bytesIn == 0 ? 0 : (double) bytesOut / bytesIn;
+        }
+    }
+
+    public static Builder newCompressionPolicy() {
+        return new Builder();
+    }
+
+    public static CompressionPolicy defaultPolicy() {
+        return DefaultPolicy.INSTANCE;
+    }
+    private enum DefaultPolicy {;
+        private static final CompressionPolicy INSTANCE = newCompressionPolicy()
+            .compress("text/", 6)
+            .compress("application/json", 6)
+            .compress("application/javascript", 6)
+            .compress("application/xml", 6)
+            .compress("image/svg+xml", 6)
+            .build();
+    }
+
+    public static final class Builder {
+        private final List<String> contentTypes = new ArrayList<>();
+        private final List<Integer> levels = new ArrayList<>();
+        private long minimumSize = 1024;
+        private int poolSize = 64;
+
+        private Builder() {}
+
+        // The content type is matched as a prefix, "text/" covers every text format
+        public Builder compress(final String contentType, final int level) {
+            if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+                throw new IllegalArgumentException("Level must be between 1 and 9");
+            contentTypes.add(contentType);
+            levels.add(level);
+            return this;
+        }
+        public Builder minimumSize(final long bytes) {
+            this.minimumSize = bytes;
+            return this;
+        }
+        public Builder poolSize(final int poolSize) {
+            this.poolSize = poolSize;
+            return this;
+        }
+        public CompressionPolicy build() {
+            return new CompressionPolicy(this);
+        }
+    }
+
+    private final String[] contentTypes;
+    private final List<ObjectPool<Deflater>> pools;
+    private final long minimumSize;
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    private CompressionPolicy(final Builder builder) {
+        this.contentTypes = builder.contentTypes.toArray(new String[0]);
+        final List<ObjectPool<Deflater>> pools = new ArrayList<>(contentTypes.length);
+        for (final int level : builder.levels) {
+            pools.add(newPool(builder.poolSize, level));
+        }
+        this.pools = List.copyOf(pools);
+        this.minimumSize = builder.minimumSize;
+    }
+
+    // SimpleObjectPool implements the raw ObjectPool
+    @SuppressWarnings("unchecked")
+    private ObjectPool<Deflater> newPool(final int size, final int level) {
+        return new SimpleObjectPool<>(size, () -> new Deflater(level, true), this::recycle, Deflater::end);
+    }
+
+    public HttpHandler compress(final HttpHandler next) {
+        return new EncodingHandler(new ContentEncodingRepository()
+            .addEncodingHandler("gzip", new PooledEncoding(true), 100, this::shouldCompress)
+            .addEncodingHandler("deflate", new PooledEncoding(false), 50, this::shouldCompress))
+            .setNext(next);
+    }
+
+    public CompressionStats stats() {
+        return new CompressionStats(responses.sum(), bytesIn.sum(), bytesOut.sum(), nanos.sum());
+    }
+
+    private boolean shouldCompress(final HttpServerExchange exchange) {
+        if (indexOf(exchange.getResponseHeaders().getFirst(CONTENT_TYPE)) == -1) return false;
+        final String length = exchange.getResponseHeaders().getFirst(CONTENT_LENGTH);
+        return length == null || Long.parseLong(length) >= minimumSize;
+    }
+
+    private int indexOf(final String contentType) {
+        if (contentType == null) return -1;
+        for (int i = 0; i < contentTypes.length; i++) {
+            if (contentType.regionMatches(true, 0, contentTypes[i], 0, contentTypes[i].length())) return i;
+        }
+        return -1;
+    }
+
+    private void recycle(final Deflater deflater) {
+        responses.increment();
+        bytesIn.add(deflater.getBytesRead());
+        bytesOut.add(deflater.getBytesWritten());
+        deflater.reset();
+    }
+
+    private final class PooledEncoding implements ContentEncodingProvider {
+        private final boolean gzip;
+
+        private PooledEncoding(final boolean gzip) {
+            this.gzip = gzip;
+        }
+
+        @Override
+        public ConduitWrapper<StreamSinkConduit> getResponseWrapper() {
+            return (factory, exchange) -> {
+                final var pool = pools.get(indexOf(exchange.getResponseHeaders().getFirst(CONTENT_TYPE)));
+                return new TimedConduit(gzip
+                    ? new GzipStreamSinkConduit(factory, exchange, pool)
+                    : new DeflatingStreamSinkConduit(factory, exchange, pool));
+            };
+        }
+    }
+
+    // Counts the time spent inside the compressing conduit, which is dominated by the Deflater
+    private final class TimedConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
+
+        private TimedConduit(final StreamSinkConduit next) {
+            super(next);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return next.write(src);
+            } finally {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return next.write(srcs, offset, length);
+            } finally {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public int writeFinal(final ByteBuffer src) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return next.writeFinal(src);
+            } finally {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public long writeFinal(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return next.writeFinal(srcs, offset, length);
+            } finally {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public boolean flush() throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return next.flush();
+            } finally {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void terminateWrites() throws IOException {
+            final long start = System.nanoTime();
+            try {
+                next.terminateWrites();
+            } finally {
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+}
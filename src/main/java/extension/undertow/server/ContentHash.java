@@ -0,0 +1,50 @@
+package extension.undertow.server;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+// Fast non-cryptographic 64 bit hash (MurmurHash3 style mixing, 8 bytes per step). Good enough to
+// detect changed content, never use it where someone could gain from a collision.
+enum ContentHash {;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, LITTLE_ENDIAN);
+    private static final long C1 = 0x87c37b91114253d5L, C2 = 0x4cf5ad432745937fL;
+
+    static long hash64(final byte[] data, final int offset, final int length) {
+        long hash = 0x9e3779b97f4a7c15L ^ (length * C1);
+        int position = offset;
+        final int end = offset + length;
+        for (; position + 8 <= end; position += 8) {
+            hash ^= mixBlock((long) LONGS.get(data, position));
+            hash = Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+        }
+        long tail = 0;
+        for (int shift = 0; position < end; position++, shift += 8) {
+            tail |= (data[position] & 0xFFL) << shift;
+        }
+        hash ^= mixBlock(tail);
+        return finalMix(hash);
+    }
+
+    static String toHex(final long hash) {
+        final String hex = Long.toHexString(hash);
+        return "0".repeat(16 - hex.length()) + hex;
+    }
+
+    private static long mixBlock(long block) {
+        block *= C1;
+        block = Long.rotateLeft(block, 31);
+        return block * C2;
+    }
+
+    private static long finalMix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+}
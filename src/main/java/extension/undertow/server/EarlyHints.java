@@ -0,0 +1,207 @@
+package extension.undertow.server;
+
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.protocol.http.HttpServerConnection;
+import io.undertow.util.SameThreadExecutor;
+import org.xnio.channels.Channels;
+import org.xnio.conduits.ConduitStreamSinkChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static io.undertow.util.Methods.GET;
+import static io.undertow.util.Protocols.HTTP_1_1;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+// The critical stylesheets and scripts in the <head> of a page, found once when the handler is
+// built. Before the page is sent they are announced in a 103 Early Hints response so the browser can
+// start fetching them while the server is still working, and they are repeated as Link headers on
+// the final response for clients and proxies that ignore 1xx responses.
+//
+// Undertow only hands out interim responses for 100-continue, so the 103 is written to the channel
+// of the connection, ahead of the response channel. This is only done on a plain HTTP/1.1 connection
+// without pipelined response buffering and before the response started. HTTP/2 and AJP connections
+// have no way to send a 1xx here, their clients only receive the Link headers on the final response.
+final class EarlyHints {
+
+    static final String NONCE_PLACEHOLDER = "${CSP_NONCE}";
+    private static final String NONCE_PARAMETER = "; nonce=\"" + NONCE_PLACEHOLDER + "\"";
+    static final EarlyHints NONE = new EarlyHints("");
+
+    private static final Pattern
+        HEAD_END = Pattern.compile("</head\\s*>|<body[\\s>]", Pattern.CASE_INSENSITIVE),
+        TAG = Pattern.compile("<(link|script)\\b([^>]*)>", Pattern.CASE_INSENSITIVE),
+        ATTRIBUTE = Pattern.compile("([a-zA-Z-]+)(?:\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+)))?");
+
+    static EarlyHints scan(final String html) {
+        final var head = HEAD_END.matcher(html);
+        final String region = head.find() ? html.substring(0, head.start()) : html;
+
+        final List<String> links = new ArrayList<>();
+        final var tag = TAG.matcher(region);
+        while (tag.find()) {
+            final var attributes = parseAttributes(tag.group(2));
+            final String link = tag.group(1).equalsIgnoreCase("script")
+                ? scriptLink(attributes) : linkLink(attributes);
+            if (link != null) links.add(link);
+        }
+        return new EarlyHints(String.join(", ", links));
+    }
+
+    private final String links;
+    private final boolean hasNonce;
+    private final byte[] interimResponse;
+
+    private EarlyHints(final String links) {
+        this.links = links;
+        this.hasNonce = links.contains(NONCE_PLACEHOLDER);
+        this.interimResponse = links.isEmpty() ? null : toInterimResponse(links(null), null);
+    }
+
+    boolean isEmpty() {
+        return links.isEmpty();
+    }
+
+    // The value of the Link header, with the nonce of this response filled in
+    String links(final String nonce) {
+        if (!hasNonce) return links;
+        return nonce != null ? links.replace(NONCE_PLACEHOLDER, nonce) : links.replace(NONCE_PARAMETER, "");
+    }
+
+    // Sends the 103 when possible and continues with the final response. The CSP is repeated in the
+    // 103 because browsers check preloads against the policy of the interim response.
+    void send(final HttpServerExchange exchange, final String nonce, final String csp, final HttpHandler response) throws Exception {
+        if (links.isEmpty() || !supportsEarlyHints(exchange)) {
+            response.handleRequest(exchange);
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(interimResponse != null && csp == null
+            ? interimResponse : toInterimResponse(links(nonce), csp));
+        final var channel = ((HttpServerConnection) exchange.getConnection()).getChannel().getSinkChannel();
+        if (!exchange.isInIoThread()) {
+            Channels.writeBlocking(channel, buffer);
+            Channels.flushBlocking(channel);
+            response.handleRequest(exchange);
+            return;
+        }
+        if (writeAndFlush(channel, buffer)) {
+            response.handleRequest(exchange);
+            return;
+        }
+        exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+            channel.getWriteSetter().set(ready -> {
+                try {
+                    if (!writeAndFlush(channel, buffer)) return;
+                } catch (final IOException e) {
+                    channel.suspendWrites();
+                    channel.getWriteSetter().set(null);
+                    exchange.setPersistent(false);
+                    exchange.endExchange();
+                    return;
+                }
+                channel.suspendWrites();
+                channel.getWriteSetter().set(null);
+                Connectors.executeRootHandler(response, exchange);
+            });
+            channel.resumeWrites();
+        });
+    }
+
+    private static boolean writeAndFlush(final ConduitStreamSinkChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) return false;
+        }
+        return channel.flush();
+    }
+
+    // A buffered pipelined response would end up after the hints
+    private static boolean supportsEarlyHints(final HttpServerExchange exchange) {
+        return exchange.getConnection() instanceof HttpServerConnection connection
+            && connection.getPipelineBuffer() == null
+            && HTTP_1_1.equals(exchange.getProtocol()) && GET.equals(exchange.getRequestMethod())
+            && !exchange.isResponseStarted();
+    }
+
+    private static byte[] toInterimResponse(final String links, final String csp) {
+        final var response = new StringBuilder(64 + links.length())
+            .append("HTTP/1.1 103 Early Hints\r\nLink: ").append(links).append("\r\n");
+        if (csp != null) response.append("Content-Security-Policy: ").append(csp).append("\r\n");
+        return response.append("\r\n").toString().getBytes(ISO_8859_1);
+    }
+
+    private static String scriptLink(final Map<String, String> attributes) {
+        final String src = attributes.get("src");
+        if (src == null || attributes.containsKey("async")) return null;
+        return isModule(attributes)
+            ? toLink(src, "modulepreload", null, attributes)
+            : toLink(src, "preload", "script", attributes);
+    }
+
+    private static String linkLink(final Map<String, String> attributes) {
+        final String rel = attributes.getOrDefault("rel", "").toLowerCase(Locale.ROOT).trim();
+        final String href = attributes.get("href");
+        if (href == null) return null;
+        return switch (rel) {
+            case "stylesheet" -> toLink(href, "preload", "style", attributes);
+            case "preload" -> toLink(href, "preload", attributes.get("as"), attributes);
+            case "modulepreload" -> toLink(href, "modulepreload", null, attributes);
+            default -> null;
+        };
+    }
+
+    private static boolean isModule(final Map<String, String> attributes) {
+        return "module".equalsIgnoreCase(attributes.get("type"));
+    }
+
+    // The crossorigin mode has to match the element or the browser fetches the resource twice
+    private static String toLink(final String url, final String rel, final String as, final Map<String, String> attributes) {
+        if (!isHeaderSafe(url)) return null;
+        final var link = new StringBuilder().append('<').append(url).append(">; rel=").append(rel);
+        if (as != null && isToken(as)) link.append("; as=").append(as);
+        if (attributes.containsKey("crossorigin")) {
+            final String mode = attributes.get("crossorigin");
+            link.append("; crossorigin");
+            if (mode != null && !mode.isEmpty() && isToken(mode)) link.append('=').append(mode);
+        }
+        final String nonce = attributes.get("nonce");
+        if (nonce != null && isHeaderSafe(nonce)) link.append("; nonce=\"").append(nonce).append('"');
+        return link.toString();
+    }
+
+    private static Map<String, String> parseAttributes(final String source) {
+        final Map<String, String> attributes = new HashMap<>();
+        final var attribute = ATTRIBUTE.matcher(source);
+        while (attribute.find()) {
+            String value = attribute.group(2);
+            if (value == null) value = attribute.group(3);
+            if (value == null) value = attribute.group(4);
+            attributes.putIfAbsent(attribute.group(1).toLowerCase(Locale.ROOT), value);
+        }
+        return attributes;
+    }
+
+    private static boolean isHeaderSafe(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == '"' || c == '>') return false;
+        }
+        return true;
+    }
+
+    private static boolean isToken(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-') return false;
+        }
+        return !value.isEmpty();
+    }
+
+}
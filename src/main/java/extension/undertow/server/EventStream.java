@@ -0,0 +1,231 @@
+package extension.undertow.server;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import org.xnio.IoUtils;
+import org.xnio.XnioExecutor;
+import org.xnio.channels.StreamSinkChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// A response that stays open and carries Server-Sent Events or newline delimited JSON, created by
+// ResponseBuilder.stream(). Producers call send() from any thread, the frames are queued and written
+// by the IO thread of the exchange whenever the connection can take more. No thread is held while
+// the stream is open, an idle stream costs the exchange, a small queue and a heartbeat timer.
+//
+// The queue is bounded. When a client reads slower than the producer writes, send() returns false
+// instead of buffering without limit, the producer decides to drop, coalesce or close. Heartbeats
+// keep proxies from timing out an idle stream and also find clients that went away, a write to a
+// closed connection fails and closes the stream. onClose() tells the producer to stop.
+//
+//     final EventStream events = respond(exchange).stream(SSE);
+//     events.onClose(() -> prices.unsubscribe(listener));
+//     prices.subscribe(listener = price -> events.event("price", serializer.toJson(price)));
+public final class EventStream {
+
+    public enum Format {
+        SSE("text/event-stream; charset=UTF-8", ": heartbeat\n\n"),
+        NDJSON("application/x-ndjson; charset=UTF-8", "\n");
+
+        final String contentType;
+        private final byte[] heartbeat;
+
+        Format(final String contentType, final String heartbeat) {
+            this.contentType = contentType;
+            this.heartbeat = heartbeat.getBytes(UTF_8);
+        }
+    }
+
+    public static final int DEFAULT_MAX_PENDING = 256;
+    public static final long DEFAULT_HEARTBEAT_MILLIS = 15_000;
+
+    private static final HttpString LAST_EVENT_ID = HttpString.tryFromString("Last-Event-ID");
+
+    private final HttpServerExchange exchange;
+    private final Format format;
+    private final Serializer serializer;
+    private final int maxPending;
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean closing;
+    private volatile boolean closed;
+
+    // Only touched on the IO thread
+    private StreamSinkChannel channel;
+    private ByteBuffer current;
+    private XnioExecutor.Key heartbeat;
+
+    EventStream(final HttpServerExchange exchange, final Format format, final Serializer serializer
+            , final int maxPending, final long heartbeatMillis) {
+        this.exchange = exchange;
+        this.format = format;
+        this.serializer = serializer;
+        this.maxPending = maxPending;
+        // Dispatching keeps the exchange open after the handler returns, the stream is set up on
+        // the IO thread once the handler is done
+        exchange.dispatch(exchange.getIoThread(), () -> start(heartbeatMillis));
+    }
+
+    private void start(final long heartbeatMillis) {
+        if (closed) return;
+        channel = exchange.getResponseChannel();
+        channel.getWriteSetter().set(sink -> flush());
+        exchange.getConnection().addCloseListener(connection -> abort());
+        if (heartbeatMillis > 0)
+            heartbeat = exchange.getIoThread().executeAtInterval(this::heartbeat, heartbeatMillis, MILLISECONDS);
+        flush();
+    }
+
+    // The id of the last event the client saw, sent by EventSource when it reconnects
+    public String lastEventId() {
+        return exchange.getRequestHeaders().getFirst(LAST_EVENT_ID);
+    }
+
+    // SSE: a message without a name, NDJSON: one line, which must not contain a line break
+    public boolean send(final String data) {
+        if (format == Format.NDJSON) {
+            requireSingleLine(data);
+            return enqueue(data + "\n");
+        }
+        return event(null, null, data);
+    }
+    public boolean sendJson(final Object object) {
+        if (serializer == null) throw new IllegalStateException("Missing serializer");
+        return send(serializer.toJson(object));
+    }
+
+    public boolean event(final String name, final String data) {
+        return event(null, name, data);
+    }
+    public boolean event(final String id, final String name, final String data) {
+        if (format != Format.SSE) throw new IllegalStateException("Named events are only available for SSE");
+        final var frame = new StringBuilder(data.length() + 32);
+        if (id != null) frame.append("id: ").append(requireSingleLine(id)).append('\n');
+        if (name != null) frame.append("event: ").append(requireSingleLine(name)).append('\n');
+        int start = 0;
+        while (true) {
+            final int end = data.indexOf('\n', start);
+            final int lineEnd = end == -1 ? data.length() : end;
+            final boolean carriageReturn = lineEnd > start && data.charAt(lineEnd - 1) == '\r';
+            frame.append("data: ").append(data, start, carriageReturn ? lineEnd - 1 : lineEnd).append('\n');
+            if (end == -1) break;
+            start = end + 1;
+        }
+        return enqueue(frame.append('\n').toString());
+    }
+
+    // Frames queued but not yet written to the connection
+    public int pending() {
+        return pending.get();
+    }
+    public boolean isOpen() {
+        return !closing && !closed;
+    }
+
+    // Runs once, when the stream ends for any reason. Runs immediately if it already ended.
+    public void onClose(final Runnable listener) {
+        closeListeners.add(listener);
+        if (closed && closeListeners.remove(listener)) listener.run();
+    }
+
+    // Writes what is queued and then ends the response
+    public void close() {
+        closing = true;
+        scheduleFlush();
+    }
+
+    private static String requireSingleLine(final String value) {
+        if (value.indexOf('\n') != -1 || value.indexOf('\r') != -1)
+            throw new IllegalArgumentException("Value must not contain line breaks");
+        return value;
+    }
+
+    private boolean enqueue(final String frame) {
+        if (closing || closed) return false;
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            return false;
+        }
+        queue.add(ByteBuffer.wrap(frame.getBytes(UTF_8)));
+        scheduleFlush();
+        return true;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true))
+            exchange.getIoThread().execute(this::flush);
+    }
+
+    private void heartbeat() {
+        if (current != null || !queue.isEmpty() || closing) return;
+        pending.incrementAndGet();
+        queue.add(ByteBuffer.wrap(format.heartbeat));
+        flush();
+    }
+
+    // Writes until the queue is empty or the connection is full. In the second case the write
+    // listener calls back here when the client has read enough.
+    private void flush() {
+        flushScheduled.set(false);
+        if (channel == null || closed) return;
+        try {
+            while (true) {
+                if (current == null) {
+                    current = queue.poll();
+                    if (current == null) break;
+                    pending.decrementAndGet();
+                }
+                channel.write(current);
+                if (current.hasRemaining()) {
+                    channel.resumeWrites();
+                    return;
+                }
+                current = null;
+            }
+            if (!channel.flush()) {
+                channel.resumeWrites();
+                return;
+            }
+            channel.suspendWrites();
+            if (closing && queue.isEmpty()) finish();
+        } catch (final IOException e) {
+            abort();
+            IoUtils.safeClose(exchange.getConnection());
+        }
+    }
+
+    private void finish() {
+        if (!markClosed()) return;
+        exchange.endExchange();
+    }
+
+    private void abort() {
+        if (!markClosed()) return;
+        queue.clear();
+        pending.set(0);
+        current = null;
+    }
+
+    private boolean markClosed() {
+        if (closed) return false;
+        closed = true;
+        if (heartbeat != null) heartbeat.remove();
+        for (final Runnable listener : closeListeners) {
+            if (closeListeners.remove(listener)) listener.run();
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,201 @@
+package extension.undertow.server;
+
+import extension.undertow.error.CacheInvalidationFailure;
+import extension.undertow.server.Handlers.CspSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import static extension.undertow.server.ContentHash.hash64;
+import static extension.undertow.server.ContentHash.toHex;
+import static extension.undertow.server.MimeTypeMap.toMimeType;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Static resources read from a directory instead of the classpath. Every file is loaded once, along
+// with its ETag, a gzip variant for text formats and the CSP hashes of HTML pages. A WatchService
+// drops the entries of files that change, so the next request reloads only those files and every
+// other entry stays warm. Problems while watching are reported as CacheInvalidationFailure, after
+// which the whole cache is dropped because it can no longer be trusted.
+public final class FileResources implements Closeable {
+
+    public static final class FileResource {
+        private final byte[] data;
+        private final byte[] gzipped;
+        private final String etag;
+        private final String gzippedEtag;
+        private final String mimeType;
+        private final String text;
+        private final Map<CspSettings, String> csp = new ConcurrentHashMap<>();
+        private volatile EarlyHints earlyHints;
+
+        FileResource(final byte[] data, final String mimeType) {
+            this.data = data;
+            this.mimeType = mimeType;
+            final String hash = toHex(hash64(data, 0, data.length));
+            this.etag = "\"" + hash + "\"";
+            this.gzippedEtag = "\"" + hash + "-gz\"";
+            this.text = isText(mimeType) ? new String(data, UTF_8) : null;
+            this.gzipped = isText(mimeType) && data.length >= 1024 ? gzip(data) : null;
+        }
+
+        public byte[] data() {
+            return data;
+        }
+        public byte[] gzipped() {
+            return gzipped;
+        }
+        public String etag() {
+            return etag;
+        }
+        // The ETag of the gzip variant, a strong ETag may only be shared by identical bytes
+        public String gzippedEtag() {
+            return gzippedEtag;
+        }
+        public String mimeType() {
+            return mimeType;
+        }
+        public String asString() {
+            return text != null ? text : new String(data, UTF_8);
+        }
+        public String csp(final CspSettings settings, final Function<CspSettings, String> compute) {
+            return csp.computeIfAbsent(settings, compute);
+        }
+        EarlyHints earlyHints() {
+            EarlyHints hints = earlyHints;
+            if (hints == null) earlyHints = hints = EarlyHints.scan(asString());
+            return hints;
+        }
+    }
+
+    public static FileResources watchDirectory(final Path root, final Consumer<CacheInvalidationFailure> onFailure) throws IOException {
+        return new FileResources(root.toAbsolutePath().normalize(), onFailure);
+    }
+
+    private final Path root;
+    private final Consumer<CacheInvalidationFailure> onFailure;
+    private final Map<Path, FileResource> cache = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final WatchService watcher;
+    private final Thread watchThread;
+
+    private FileResources(final Path root, final Consumer<CacheInvalidationFailure> onFailure) throws IOException {
+        this.root = root;
+        this.onFailure = onFailure;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        registerTree(root);
+        this.watchThread = new Thread(this::watchLoop, "file-resources-watcher");
+        this.watchThread.setDaemon(true);
+        this.watchThread.start();
+    }
+
+    // Returns null when the URI points outside the directory or to something that isn't a file
+    public FileResource get(final String requestURI) throws IOException {
+        if (requestURI.isBlank() || requestURI.endsWith("/") || requestURI.endsWith("\\")) return null;
+        final Path path = root.resolve(requestURI.substring(requestURI.startsWith("/") ? 1 : 0)).normalize();
+        if (!path.startsWith(root)) return null;
+
+        final FileResource cached = cache.get(path);
+        if (cached != null) return cached;
+        if (!Files.isRegularFile(path)) return null;
+
+        // If the file changes while it is being read the result is served once but not kept
+        final long generation = invalidations.get();
+        final var resource = new FileResource(Files.readAllBytes(path), toMimeType(path.getFileName().toString()));
+        if (invalidations.get() == generation) cache.put(path, resource);
+        return resource;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    private void watchLoop() {
+        while (true) {
+            final WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (final InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            final Path directory = directories.get(key);
+            if (directory == null) {
+                key.cancel();
+                continue;
+            }
+            try {
+                for (final var event : key.pollEvents()) {
+                    invalidations.incrementAndGet();
+                    if (event.kind() == OVERFLOW) {
+                        cache.clear();
+                        continue;
+                    }
+                    final Path changed = directory.resolve((Path) event.context());
+                    invalidate(changed);
+                    if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed, NOFOLLOW_LINKS)) registerTree(changed);
+                }
+            } catch (final IOException | UncheckedIOException e) {
+                cache.clear();
+                onFailure.accept(new CacheInvalidationFailure(e));
+            }
+            if (!key.reset()) {
+                directories.remove(key);
+                invalidate(directory);
+            }
+        }
+    }
+
+    private void invalidate(final Path changed) {
+        if (cache.remove(changed) != null) return;
+        // A directory was renamed or removed, drop everything that lived below it
+        cache.keySet().removeIf(path -> path.startsWith(changed));
+    }
+
+    private void registerTree(final Path directory) throws IOException {
+        try (final var tree = Files.walk(directory)) {
+            tree.filter(path -> Files.isDirectory(path, NOFOLLOW_LINKS)).forEach(path -> {
+                try {
+                    directories.put(path.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean isText(final String mimeType) {
+        return mimeType.startsWith("text/") || mimeType.equals("application/json")
+            || mimeType.equals("application/javascript") || mimeType.equals("application/xml")
+            || mimeType.equals("image/svg+xml");
+    }
+
+    private static byte[] gzip(final byte[] data) {
+        final var out = new ByteArrayOutputStream(data.length / 3);
+        try (final var gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+}
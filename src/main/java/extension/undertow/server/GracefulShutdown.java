@@ -0,0 +1,93 @@
+package extension.undertow.server;
+
+import io.undertow.Undertow;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+import static extension.undertow.model.ContentType.application_json;
+import static extension.undertow.server.ResponseBuilder.respond;
+import static io.undertow.util.Headers.CONNECTION;
+import static io.undertow.util.Protocols.HTTP_2_0;
+import static io.undertow.util.StatusCodes.OK;
+import static io.undertow.util.StatusCodes.SERVICE_UNAVAILABLE;
+import static java.lang.System.currentTimeMillis;
+
+// Drains a server before it is stopped. Wrap the root handler with track(), then call drain() from
+// the shutdown hook. Draining stops the listeners from accepting connections, asks clients on
+// existing HTTP/1.1 connections to close them after their current response and waits for the
+// requests in flight to finish, up to a deadline. HTTP/2 connections can't be told per request,
+// they are closed when the server is stopped at the end of the drain.
+public final class GracefulShutdown implements ExchangeCompletionListener {
+
+    public record DrainProgress(boolean draining, long inFlight, long completedSinceDrain, long elapsedMillis) {}
+
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private volatile boolean draining;
+    private volatile long drainStarted;
+    private volatile long completedAtDrainStart;
+
+    public HttpHandler track(final HttpHandler next) {
+        return exchange -> {
+            inFlight.increment();
+            exchange.addExchangeCompleteListener(this);
+            if (draining) closeAfterResponse(exchange);
+            next.handleRequest(exchange);
+        };
+    }
+
+    // Load balancers can poll this to stop routing traffic to the node as soon as draining starts
+    public HttpHandler readinessCheck() {
+        return exchange -> respond(exchange).status(draining ? SERVICE_UNAVAILABLE : OK)
+            .contentType(application_json).send(draining ? "{\"ready\":false}" : "{\"ready\":true}");
+    }
+
+    public boolean drain(final Undertow server, final Duration timeout) throws InterruptedException {
+        completedAtDrainStart = completed.sum();
+        drainStarted = currentTimeMillis();
+        draining = true;
+        for (final var listener : server.getListenerInfo()) {
+            listener.suspend();
+        }
+
+        final long deadline = drainStarted + timeout.toMillis();
+        while (inFlight.sum() > 0 && currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        final boolean drained = inFlight.sum() == 0;
+        server.stop();
+        return drained;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public long inFlight() {
+        return inFlight.sum();
+    }
+
+    public DrainProgress progress() {
+        if (!draining) return new DrainProgress(false, inFlight.sum(), 0, 0);
+        return new DrainProgress(true, inFlight.sum(), completed.sum() - completedAtDrainStart,
+            currentTimeMillis() - drainStarted);
+    }
+
+    @Override
+    public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+        inFlight.decrement();
+        completed.increment();
+        nextListener.proceed();
+    }
+
+    private static void closeAfterResponse(final HttpServerExchange exchange) {
+        if (HTTP_2_0.equals(exchange.getProtocol())) return;
+        exchange.setPersistent(false);
+        exchange.getResponseHeaders().put(CONNECTION, "close");
+    }
+
+}
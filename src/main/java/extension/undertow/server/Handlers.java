@@ -1,31 +1,32 @@
 package extension.undertow.server;
 
-import extension.undertow.error.AccessDenied;
 import extension.undertow.error.HttpError;
-import io.undertow.predicate.Predicates;
+import extension.undertow.error.NotFound;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.NameVirtualHostHandler;
-import io.undertow.server.handlers.encoding.ContentEncodingRepository;
-import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
-import io.undertow.server.handlers.encoding.EncodingHandler;
-import io.undertow.server.handlers.encoding.GzipEncodingProvider;
+import io.undertow.util.DateUtils;
 import io.undertow.util.HttpString;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 
+import static extension.undertow.error.AccessDenied.INVALID_API_KEY;
 import static extension.undertow.model.ContentType.text_html;
+import static extension.undertow.server.CacheControlStrategy.IMMUTABLE;
 import static extension.undertow.server.CacheControlStrategy.NEVER_CACHE;
 import static extension.undertow.server.CacheControlStrategy.STORE_BUT_CHECK_SERVER;
+import static extension.undertow.server.HeaderPolicy.CONTENT_SECURITY_POLICY_REPORT_ONLY;
+import static extension.undertow.server.HeaderPolicy.newHeaderPolicy;
 import static extension.undertow.server.RequestParser.getMandatoryString;
+import static extension.undertow.server.RequestParser.receiveBody;
 import static extension.undertow.server.ResponseBuilder.respond;
 import static extension.undertow.server.ResponseBuilder.respondInternalError;
-import static io.undertow.predicate.Predicates.requestLargerThan;
 import static io.undertow.util.Headers.*;
 import static io.undertow.util.StatusCodes.*;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -60,12 +61,14 @@ public enum Handlers {;
         };
     }
 
+    // Reports are small, anything larger than this is not a report
+    private static final int MAX_CSP_REPORT_SIZE = 64 * 1024;
+
     public static HttpHandler logCspViolation(final Logger dao) {
-        return exchange -> {
-            final var violation = new String(exchange.getInputStream().readAllBytes(), UTF_8);
-            dao.error("CSP violation:\n" + violation);
+        return receiveBody(dao, MAX_CSP_REPORT_SIZE, (exchange, body) -> {
+            dao.error("CSP violation:\n" + new String(body, UTF_8));
             respond(exchange).status(NO_CONTENT).send();
-        };
+        });
     }
 
     public static HttpHandler trace(final Logger logger, final String message, final HttpHandler next) {
@@ -85,55 +88,143 @@ public enum Handlers {;
     public static HttpHandler singlePageApp(final CspSettings csp, final JarResource resource, final Set<String> pageURIs) throws IOException {
         return singlePageApp(csp, resource.asString(), pageURIs);
     }
+    // Pages served by a single page app announce the stylesheets and scripts in their <head> with
+    // 103 Early Hints and Link headers, see EarlyHints
     public static HttpHandler singlePageApp(final String pageContent, final Set<String> pageURIs) {
         final var notFound = html404(pageContent);
-        final var found = staticHtml(pageContent);
+        final var found = staticHtml(pageContent, EarlyHints.scan(pageContent));
         return exchange -> (pageURIs.contains(exchange.getRequestPath()) ? found : notFound).handleRequest(exchange);
     }
     public static HttpHandler singlePageApp(final CspSettings csp, final String pageContent, final Set<String> pageURIs) {
         final var notFound = html404(pageContent);
-        final var found = staticHtml(csp, pageContent);
+        final var found = staticHtml(csp, pageContent, EarlyHints.scan(pageContent));
+        return exchange -> (pageURIs.contains(exchange.getRequestPath()) ? found : notFound).handleRequest(exchange);
+    }
+    public static HttpHandler singlePageApp(final FileResources resources, final String path, final Set<String> pageURIs) {
+        final var notFound = html404(resources, path);
+        final var found = staticHtml(resources, path, true);
+        return exchange -> (pageURIs.contains(exchange.getRequestPath()) ? found : notFound).handleRequest(exchange);
+    }
+    public static HttpHandler singlePageApp(final CspSettings csp, final FileResources resources, final String path, final Set<String> pageURIs) {
+        final var notFound = html404(resources, path);
+        final var found = staticHtml(csp, resources, path, true);
         return exchange -> (pageURIs.contains(exchange.getRequestPath()) ? found : notFound).handleRequest(exchange);
     }
 
+    // Same as the Set variants but for routes with templates and wildcards, see SpaRoutes
+    public static HttpHandler singlePageApp(final JarResource resource, final SpaRoutes routes) throws IOException {
+        return singlePageApp(resource.asString(), routes);
+    }
+    public static HttpHandler singlePageApp(final CspSettings csp, final JarResource resource, final SpaRoutes routes) throws IOException {
+        return singlePageApp(csp, resource.asString(), routes);
+    }
+    public static HttpHandler singlePageApp(final String pageContent, final SpaRoutes routes) {
+        final var notFound = html404(pageContent);
+        final var found = staticHtml(pageContent, EarlyHints.scan(pageContent));
+        return exchange -> (routes.matches(exchange.getRequestPath()) ? found : notFound).handleRequest(exchange);
+    }
+    public static HttpHandler singlePageApp(final CspSettings csp, final String pageContent, final SpaRoutes routes) {
+        final var notFound = html404(pageContent);
+        final var found = staticHtml(csp, pageContent, EarlyHints.scan(pageContent));
+        return exchange -> (routes.matches(exchange.getRequestPath()) ? found : notFound).handleRequest(exchange);
+    }
+    public static HttpHandler singlePageApp(final FileResources resources, final String path, final SpaRoutes routes) {
+        final var notFound = html404(resources, path);
+        final var found = staticHtml(resources, path, true);
+        return exchange -> (routes.matches(exchange.getRequestPath()) ? found : notFound).handleRequest(exchange);
+    }
+    public static HttpHandler singlePageApp(final CspSettings csp, final FileResources resources, final String path, final SpaRoutes routes) {
+        final var notFound = html404(resources, path);
+        final var found = staticHtml(csp, resources, path, true);
+        return exchange -> (routes.matches(exchange.getRequestPath()) ? found : notFound).handleRequest(exchange);
+    }
+
     public static HttpHandler staticHtml(final JarResource resource) throws IOException {
         return staticHtml(resource.asString());
     }
     public static HttpHandler staticHtml(final String content) {
+        return staticHtml(content, EarlyHints.NONE);
+    }
+    private static HttpHandler staticHtml(final String content, final EarlyHints hints) {
         final String etag = String.format("\"%s\"", encodeHex(sha256(content, UTF_8)));
-
+        return exchange -> sendHtml(exchange, content, etag, hints);
+    }
+    public static HttpHandler staticHtml(final FileResources resources, final String path) {
+        return staticHtml(resources, path, false);
+    }
+    private static HttpHandler staticHtml(final FileResources resources, final String path, final boolean earlyHints) {
         return exchange -> {
-            final String requestEtag = exchange.getRequestHeaders().getFirst(IF_NONE_MATCH);
-            if (etag.equals(requestEtag)) {
-                respond(exchange).status(NOT_MODIFIED).contentType(text_html).send();
-            } else {
-                respond(exchange).status(OK).contentType(text_html)
-                    .cache(STORE_BUT_CHECK_SERVER)
-                    .header(ETAG, etag).send(content);
-            }
+            final var page = requirePage(resources, path);
+            sendHtml(exchange, page.asString(), page.etag(), earlyHints ? page.earlyHints() : EarlyHints.NONE);
         };
     }
+    // Undertow's Headers has no constant for Link
+    private static final HttpString LINK = HttpString.tryFromString("Link");
+
+    private static void sendHtml(final HttpServerExchange exchange, final String content, final String etag
+            , final EarlyHints hints) throws Exception {
+        final String requestEtag = exchange.getRequestHeaders().getFirst(IF_NONE_MATCH);
+        if (etag.equals(requestEtag)) {
+            respond(exchange).status(NOT_MODIFIED).contentType(text_html).send();
+        } else {
+            hints.send(exchange, null, null, response -> {
+                final var builder = respond(response).status(OK).contentType(text_html)
+                    .cache(STORE_BUT_CHECK_SERVER)
+                    .header(ETAG, etag);
+                if (!hints.isEmpty()) builder.header(LINK, hints.links(null));
+                builder.send(content);
+            });
+        }
+    }
     public static HttpHandler staticHtml(final CspSettings csp, final JarResource resource) throws IOException {
         return staticHtml(csp, resource.asString());
     }
     public static HttpHandler staticHtml(final CspSettings csp, final String content) {
+        return staticHtml(csp, content, EarlyHints.NONE);
+    }
+    private static HttpHandler staticHtml(final CspSettings csp, final String content, final EarlyHints hints) {
         final String etag = String.format("\"%s\"", encodeHex(sha256(content, UTF_8)));
         final String partialCsp = addHashesToCsp(csp.baseCsp, csp.styleSrc, content);
+        return exchange -> sendCspHtml(exchange, csp, content, etag, partialCsp, hints);
+    }
+    public static HttpHandler staticHtml(final CspSettings csp, final FileResources resources, final String path) {
+        return staticHtml(csp, resources, path, false);
+    }
+    private static HttpHandler staticHtml(final CspSettings csp, final FileResources resources, final String path
+            , final boolean earlyHints) {
         return exchange -> {
-            final String requestEtag = exchange.getRequestHeaders().getFirst(IF_NONE_MATCH);
-            if (etag.equals(requestEtag)) {
-                respond(exchange).status(NOT_MODIFIED).contentType(text_html).send();
-            } else {
-                final String nonce = newRandomCharacters(16, UPPERCASE_LOWERCASE_NUMBERS);
-                final String page = content.replace("${CSP_NONCE}", nonce);
-                final String cspHeader = addNoncesToCsp(partialCsp, "'nonce-" + nonce + "'");
-                respond(exchange).status(OK).contentType(text_html)
+            final var page = requirePage(resources, path);
+            final String content = page.asString();
+            final String partialCsp = page.csp(csp, settings -> addHashesToCsp(settings.baseCsp, settings.styleSrc, content));
+            sendCspHtml(exchange, csp, content, page.etag(), partialCsp, earlyHints ? page.earlyHints() : EarlyHints.NONE);
+        };
+    }
+    // The nonce in the page, the CSP header and the Link headers is the same one, otherwise the
+    // browser would refuse to use the preloaded scripts
+    private static void sendCspHtml(final HttpServerExchange exchange, final CspSettings csp, final String content
+            , final String etag, final String partialCsp, final EarlyHints hints) throws Exception {
+        final String requestEtag = exchange.getRequestHeaders().getFirst(IF_NONE_MATCH);
+        if (etag.equals(requestEtag)) {
+            respond(exchange).status(NOT_MODIFIED).contentType(text_html).send();
+        } else {
+            final String nonce = newRandomCharacters(16, UPPERCASE_LOWERCASE_NUMBERS);
+            final String page = content.replace(EarlyHints.NONCE_PLACEHOLDER, nonce);
+            final String cspHeader = addNoncesToCsp(partialCsp, "'nonce-" + nonce + "'");
+            hints.send(exchange, nonce, cspHeader, response -> {
+                final var builder = respond(response).status(OK).contentType(text_html)
                     .cache(STORE_BUT_CHECK_SERVER)
                     .header(REPORT_TO, csp.reportTo)
                     .header(CONTENT_SECURITY_POLICY, cspHeader)
-                    .header(ETAG, etag).send(page);
-            }
-        };
+                    .header(ETAG, etag);
+                if (!hints.isEmpty()) builder.header(LINK, hints.links(nonce));
+                builder.send(page);
+            });
+        }
+    }
+    private static FileResources.FileResource requirePage(final FileResources resources, final String path) throws IOException {
+        final var page = resources.get(path);
+        if (page == null) throw new NotFound("Missing page " + path);
+        return page;
     }
 
     public static HttpHandler usingThread(final HttpHandler next) {
@@ -177,8 +268,42 @@ public enum Handlers {;
         };
     }
 
+    // Weak comparison as required for If-None-Match, also accepts lists of tags and '*'
     public static boolean matchesEtag(final HttpServerExchange request, final String etag) {
-        return (etag.equals(request.getRequestHeaders().getFirst(IF_NONE_MATCH)));
+        final var values = request.getRequestHeaders().get(IF_NONE_MATCH);
+        if (values == null) return false;
+        final String opaqueTag = opaqueTag(etag);
+        for (final String value : values) {
+            if (etag.equals(value)) return true;
+            for (final String candidate : value.split(",")) {
+                final String tag = candidate.trim();
+                if (tag.equals("*") || opaqueTag.equals(opaqueTag(tag))) return true;
+            }
+        }
+        return false;
+    }
+    private static String opaqueTag(final String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    // If-Modified-Since only counts when the request has no If-None-Match
+    public static boolean isNotModified(final HttpServerExchange request, final String etag, final String lastModified) {
+        if (request.getRequestHeaders().contains(IF_NONE_MATCH)) return etag != null && matchesEtag(request, etag);
+        final String ifModifiedSince = request.getRequestHeaders().getFirst(IF_MODIFIED_SINCE);
+        if (lastModified == null || ifModifiedSince == null) return false;
+        final var modifiedSince = DateUtils.parseDate(ifModifiedSince);
+        final var modified = DateUtils.parseDate(lastModified);
+        return modifiedSince != null && modified != null && modified.getTime() / 1000 <= modifiedSince.getTime() / 1000;
+    }
+
+    public static HttpHandler autoEtag(final HttpHandler next) {
+        return autoEtag(1024 * 1024, next);
+    }
+    public static HttpHandler autoEtag(final int maxBytes, final HttpHandler next) {
+        return exchange -> {
+            exchange.putAttachment(ResponseBuilder.AUTO_ETAG_LIMIT, maxBytes);
+            next.handleRequest(exchange);
+        };
     }
 
     public static void checkEtag(final String etag, final HttpServerExchange exchange, final HttpHandler next) throws Exception {
@@ -190,10 +315,10 @@ public enum Handlers {;
     }
 
     public static HttpHandler compressResponse(final HttpHandler next) {
-        return new EncodingHandler(new ContentEncodingRepository()
-            .addEncodingHandler("gzip", new GzipEncodingProvider(), 100, Predicates.parse("max-content-size[5]"))
-            .addEncodingHandler("deflate", new DeflateEncodingProvider(), 50, requestLargerThan(5)))
-            .setNext(next);
+        return compressResponse(CompressionPolicy.defaultPolicy(), next);
+    }
+    public static HttpHandler compressResponse(final CompressionPolicy policy, final HttpHandler next) {
+        return policy.compress(next);
     }
 
     public static HttpHandler resourceHandler(final String wwwroot, final HttpHandler fallback) {
@@ -216,6 +341,71 @@ public enum Handlers {;
         };
     }
 
+    public static HttpHandler resourceHandler(final FileResources resources, final HttpHandler fallback) {
+        return exchange -> {
+            final var resource = resources.get(exchange.getRequestPath());
+            if (resource == null) fallback.handleRequest(exchange);
+            else sendResource(exchange, resource, STORE_BUT_CHECK_SERVER);
+        };
+    }
+    // Fingerprinted URLs never change content, so they are cached without revalidation
+    public static HttpHandler resourceHandler(final AssetManifest manifest, final HttpHandler fallback) {
+        return exchange -> {
+            final var resource = manifest.get(exchange.getRequestPath());
+            if (resource == null) fallback.handleRequest(exchange);
+            else sendResource(exchange, resource, IMMUTABLE);
+        };
+    }
+    // The gzip variant is a different representation, so it has its own ETag
+    private static void sendResource(final HttpServerExchange exchange, final FileResources.FileResource resource
+            , final CacheControlStrategy caching) {
+        final boolean gzip = resource.gzipped() != null && acceptsGzip(exchange);
+        final String etag = gzip ? resource.gzippedEtag() : resource.etag();
+        if (matchesEtag(exchange, etag)) {
+            final var response = respond(exchange).status(NOT_MODIFIED).cache(caching).contentType(resource.mimeType());
+            if (resource.gzipped() != null) response.header(VARY, ACCEPT_ENCODING_STRING);
+            response.send();
+        } else {
+            final var response = respond(exchange).status(OK).cache(caching)
+                .contentType(resource.mimeType()).header(ETAG, etag);
+            if (resource.gzipped() != null) response.header(VARY, ACCEPT_ENCODING_STRING);
+            if (gzip) response.header(CONTENT_ENCODING, "gzip");
+            response.send(gzip ? resource.gzipped() : resource.data());
+        }
+    }
+    // Honours q-values, gzip;q=0 refuses gzip. An explicit gzip entry takes precedence over '*'.
+    private static boolean acceptsGzip(final HttpServerExchange exchange) {
+        final var values = exchange.getRequestHeaders().get(ACCEPT_ENCODING);
+        if (values == null) return false;
+        double gzip = -1, wildcard = -1;
+        for (final String value : values) {
+            for (final String coding : value.split(",")) {
+                final int semicolon = coding.indexOf(';');
+                final String name = (semicolon == -1 ? coding : coding.substring(0, semicolon)).trim();
+                if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip"))
+                    gzip = Math.max(gzip, qValue(coding, semicolon));
+                else if (name.equals("*"))
+                    wildcard = Math.max(wildcard, qValue(coding, semicolon));
+            }
+        }
+        return gzip != -1 ? gzip > 0 : wildcard > 0;
+    }
+    private static double qValue(final String coding, final int semicolon) {
+        if (semicolon == -1) return 1;
+        for (final String parameter : coding.substring(semicolon + 1).split(";")) {
+            final String trimmed = parameter.trim();
+            if (trimmed.length() < 2 || (trimmed.charAt(0) != 'q' && trimmed.charAt(0) != 'Q') || trimmed.charAt(1) != '=')
+                continue;
+            try {
+                final double q = Double.parseDouble(trimmed.substring(2).trim());
+                return q >= 0 && q <= 1 ? q : 0;
+            } catch (final NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 1;
+    }
+
     public static byte[] loadResource(final String prefix, final String requestURI) throws IOException {
         if (requestURI.isBlank() || requestURI.endsWith("/") || requestURI.endsWith("\\")) return null;
         final var requestedPath = Path.of(prefix, requestURI).normalize().toString().replace('\\', '/');
@@ -234,6 +424,10 @@ public enum Handlers {;
         return exchange -> respond(exchange).status(NOT_FOUND)
             .cache(NEVER_CACHE).contentType(text_html).send(html);
     }
+    public static HttpHandler html404(final FileResources resources, final String path) {
+        return exchange -> respond(exchange).status(NOT_FOUND)
+            .cache(NEVER_CACHE).contentType(text_html).send(requirePage(resources, path).asString());
+    }
 
     public static HttpHandler statusCode(final int code) {
         return exchange -> exchange.setStatusCode(code);
@@ -254,6 +448,14 @@ public enum Handlers {;
         };
     }
 
+    // Replaces nested pathPrefix calls with a single lookup for the longest matching prefix
+    public static HttpHandler pathPrefixes(final Map<String, HttpHandler> routes, final HttpHandler noMatch) {
+        return new PrefixDispatcher(routes, noMatch, false);
+    }
+    public static HttpHandler pathPrefixes(final Map<String, HttpHandler> routes, final HttpHandler noMatch, final boolean stripPrefix) {
+        return new PrefixDispatcher(routes, noMatch, stripPrefix);
+    }
+
     public static ExtendedRoutingHandler routing() {
         return new ExtendedRoutingHandler();
     }
@@ -264,40 +466,34 @@ public enum Handlers {;
     public static NameVirtualHostHandler virtualHosts() {
         return new NameVirtualHostHandler();
     }
+    public static HostRouter.Builder hostRouting() {
+        return HostRouter.newHostRouter();
+    }
 
     public static HttpHandler isAuthorized(final String key, final HttpHandler next) {
         return exchange -> {
             final String requestKey = getMandatoryString(exchange, AUTHORIZATION);
-            if (!key.equals(requestKey)) throw new AccessDenied("Invalid API key");
+            if (!key.equals(requestKey)) throw INVALID_API_KEY;
             next.handleRequest(exchange);
         };
     }
     public static HttpHandler isAuthorized(final Set<String> keys, final HttpHandler next) {
         return exchange -> {
             final String requestKey = getMandatoryString(exchange, AUTHORIZATION);
-            if (!keys.contains(requestKey)) throw new AccessDenied("Invalid API key");
+            if (!keys.contains(requestKey)) throw INVALID_API_KEY;
             next.handleRequest(exchange);
         };
     }
 
-    private static final HttpString
-        CONTENT_SECURITY_POLICY_REPORT_ONLY = HttpString.tryFromString("Content-Security-Policy-Report-Only"),
-        CROSS_ORIGIN_OPENER_POLICY = HttpString.tryFromString("Cross-Origin-Opener-Policy");
+    private static final HeaderPolicy SECURITY_HEADERS = newHeaderPolicy().securityHeaders().build();
 
     public static HttpHandler securityHeaders(final HttpHandler next) {
-        return exchange -> {
-            if (exchange.isSecure()) {
-                exchange.getResponseHeaders()
-                    .add(STRICT_TRANSPORT_SECURITY, "max-age=31536000; includeSubDomains")
-                    .add(CROSS_ORIGIN_OPENER_POLICY, "same-origin");
-            }
-            exchange.getResponseHeaders()
-                .add(X_FRAME_OPTIONS, "sameorigin")
-                .add(X_XSS_PROTECTION, "1; mode=block")
-                .add(X_CONTENT_TYPE_OPTIONS, "nosniff")
-                .add(REFERRER_POLICY, "no-referrer");
-            next.handleRequest(exchange);
-        };
+        return SECURITY_HEADERS.handler(next);
+    }
+
+    // Use this instead of nesting securityHeaders, addCsp and addCspReportOnly
+    public static HttpHandler headerPolicy(final HeaderPolicy policy, final HttpHandler next) {
+        return policy.handler(next);
     }
 
     public static HttpHandler addCsp(final String value, final HttpHandler next) {
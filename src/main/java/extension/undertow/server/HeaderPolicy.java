@@ -0,0 +1,119 @@
+package extension.undertow.server;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HttpString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.undertow.util.Headers.*;
+
+// The response headers that every page gets, merged into one precomputed list of names and values.
+// Instead of nesting securityHeaders, addCsp and a cache strategy around a handler, build one policy
+// and apply it with a single loop. The only thing decided per request is whether the connection is
+// secure, the headers for both cases are prepared when the policy is built.
+//
+// The cache strategy of a policy is the default for its responses. A ResponseBuilder keeps it unless
+// cache() was called on the builder, then that strategy replaces it.
+public final class HeaderPolicy {
+
+    static final HttpString
+        CONTENT_SECURITY_POLICY_REPORT_ONLY = HttpString.tryFromString("Content-Security-Policy-Report-Only"),
+        CROSS_ORIGIN_OPENER_POLICY = HttpString.tryFromString("Cross-Origin-Opener-Policy");
+
+    public static Builder newHeaderPolicy() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private final HeaderMap secureOnly = new HeaderMap();
+        private final HeaderMap always = new HeaderMap();
+
+        private Builder() {}
+
+        public Builder securityHeaders() {
+            secureOnly
+                .add(STRICT_TRANSPORT_SECURITY, "max-age=31536000; includeSubDomains")
+                .add(CROSS_ORIGIN_OPENER_POLICY, "same-origin");
+            always
+                .add(X_FRAME_OPTIONS, "sameorigin")
+                .add(X_XSS_PROTECTION, "1; mode=block")
+                .add(X_CONTENT_TYPE_OPTIONS, "nosniff")
+                .add(REFERRER_POLICY, "no-referrer");
+            return this;
+        }
+        public Builder csp(final String value) {
+            always.add(CONTENT_SECURITY_POLICY, value);
+            return this;
+        }
+        public Builder cspReportOnly(final String value) {
+            always.add(CONTENT_SECURITY_POLICY_REPORT_ONLY, value);
+            return this;
+        }
+        public Builder cache(final CacheControlStrategy caching) {
+            caching.replace(always);
+            return this;
+        }
+        public Builder header(final String name, final String value) {
+            return header(HttpString.tryFromString(name), value);
+        }
+        public Builder header(final HttpString name, final String value) {
+            always.add(name, value);
+            return this;
+        }
+        public Builder secureHeader(final HttpString name, final String value) {
+            secureOnly.add(name, value);
+            return this;
+        }
+        public HeaderPolicy build() {
+            return new HeaderPolicy(this);
+        }
+    }
+
+    private final HttpString[] secureNames, insecureNames;
+    private final String[] secureValues, insecureValues;
+
+    private HeaderPolicy(final Builder builder) {
+        final var insecureNames = new ArrayList<HttpString>();
+        final var insecureValues = new ArrayList<String>();
+        addAll(builder.always, insecureNames, insecureValues);
+        final var secureNames = new ArrayList<HttpString>();
+        final var secureValues = new ArrayList<String>();
+        addAll(builder.secureOnly, secureNames, secureValues);
+        addAll(builder.always, secureNames, secureValues);
+
+        this.insecureNames = insecureNames.toArray(new HttpString[0]);
+        this.insecureValues = insecureValues.toArray(new String[0]);
+        this.secureNames = secureNames.toArray(new HttpString[0]);
+        this.secureValues = secureValues.toArray(new String[0]);
+    }
+
+    private static void addAll(final HeaderMap headers, final List<HttpString> names, final List<String> values) {
+        for (final var header : headers) {
+            for (final String value : header) {
+                names.add(header.getHeaderName());
+                values.add(value);
+            }
+        }
+    }
+
+    public void apply(final HttpServerExchange exchange) {
+        final boolean secure = exchange.isSecure();
+        final HttpString[] names = secure ? secureNames : insecureNames;
+        final String[] values = secure ? secureValues : insecureValues;
+        final HeaderMap headers = exchange.getResponseHeaders();
+        for (int i = 0; i < names.length; i++) {
+            headers.add(names[i], values[i]);
+        }
+    }
+
+    public HttpHandler handler(final HttpHandler next) {
+        return exchange -> {
+            apply(exchange);
+            next.handleRequest(exchange);
+        };
+    }
+
+}
@@ -0,0 +1,166 @@
+package extension.undertow.server;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.StatusCodes;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.undertow.util.Headers.HOST;
+
+// Picks a handler based on the Host header. Hosts are registered exactly ('shop.example.com') or
+// as a wildcard ('*.example.com', which matches any host below example.com but not example.com
+// itself). An exact host beats a wildcard and a longer wildcard beats a shorter one. The port and
+// the brackets around IPv6 addresses are ignored, so are a trailing dot and the case of the host.
+//
+// Lookups hash and compare the host inside the header value, no lowercased copy is made. Hosts that
+// only resolve through a wildcard or the fallback are remembered, up to a limit, so their next
+// request needs one lookup instead of one per label.
+public final class HostRouter implements HttpHandler {
+
+    public static Builder newHostRouter() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private final Map<String, HttpHandler> exact = new LinkedHashMap<>();
+        private final Map<String, HttpHandler> wildcards = new LinkedHashMap<>();
+        private HttpHandler fallback = exchange -> exchange.setStatusCode(StatusCodes.NOT_FOUND);
+        private int cacheSize = 10_000;
+
+        private Builder() {}
+
+        public Builder host(final String host, final HttpHandler handler) {
+            final String name = normalize(host);
+            if (name.startsWith("*.")) {
+                if (wildcards.put(name.substring(2), handler) != null) throw new IllegalArgumentException("Host registered twice: " + host);
+            } else if (exact.put(name, handler) != null) {
+                throw new IllegalArgumentException("Host registered twice: " + host);
+            }
+            return this;
+        }
+        public Builder fallback(final HttpHandler fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+        // The number of hosts whose wildcard or fallback resolution is remembered, 0 disables it
+        public Builder cacheSize(final int cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+        public HostRouter build() {
+            return new HostRouter(this);
+        }
+
+        private static String normalize(final String host) {
+            String name = host.trim().toLowerCase(Locale.ROOT);
+            if (name.startsWith("[") && name.endsWith("]")) name = name.substring(1, name.length() - 1);
+            if (name.endsWith(".")) name = name.substring(0, name.length() - 1);
+            if (name.isEmpty() || name.equals("*.")) throw new IllegalArgumentException("Invalid host: " + host);
+            return name;
+        }
+    }
+
+    // Open addressing table of lowercase names, at most half full
+    private static final class HostTable {
+        private final String[] names;
+        private final HttpHandler[] handlers;
+        private final int mask;
+
+        private HostTable(final Map<String, HttpHandler> hosts) {
+            final int size = Integer.highestOneBit(Math.max(1, hosts.size()) * 2 - 1) * 2;
+            this.names = new String[size];
+            this.handlers = new HttpHandler[size];
+            this.mask = size - 1;
+            for (final var host : hosts.entrySet()) {
+                int slot = spread(host.getKey().hashCode()) & mask;
+                while (names[slot] != null) slot = (slot + 1) & mask;
+                names[slot] = host.getKey();
+                handlers[slot] = host.getValue();
+            }
+        }
+
+        private HttpHandler find(final String host, final int start, final int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + toLowerCase(host.charAt(i));
+            }
+            final int length = end - start;
+            for (int slot = spread(hash) & mask; names[slot] != null; slot = (slot + 1) & mask) {
+                final String name = names[slot];
+                if (name.length() == length && host.regionMatches(true, start, name, 0, length)) return handlers[slot];
+            }
+            return null;
+        }
+    }
+
+    private final HostTable exact;
+    private final HostTable wildcards;
+    private final boolean hasWildcards;
+    private final HttpHandler fallback;
+    private final int cacheSize;
+    private final Map<String, HttpHandler> resolved = new ConcurrentHashMap<>();
+
+    private HostRouter(final Builder builder) {
+        this.exact = new HostTable(builder.exact);
+        this.wildcards = new HostTable(builder.wildcards);
+        this.hasWildcards = !builder.wildcards.isEmpty();
+        this.fallback = builder.fallback;
+        this.cacheSize = builder.cacheSize;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        route(exchange.getRequestHeaders().getFirst(HOST)).handleRequest(exchange);
+    }
+
+    public HttpHandler route(final String hostHeader) {
+        if (hostHeader == null) return fallback;
+
+        int start = 0, end = hostHeader.length();
+        if (end > 0 && hostHeader.charAt(0) == '[') {
+            final int close = hostHeader.indexOf(']');
+            if (close == -1) return fallback;
+            start = 1;
+            end = close;
+        } else {
+            final int colon = hostHeader.lastIndexOf(':');
+            if (colon != -1) end = colon;
+        }
+        if (end > start && hostHeader.charAt(end - 1) == '.') end--;
+        if (end <= start) return fallback;
+
+        final HttpHandler handler = exact.find(hostHeader, start, end);
+        if (handler != null) return handler;
+        if (cacheSize == 0) return resolveWildcard(hostHeader, start, end);
+
+        final HttpHandler cached = resolved.get(hostHeader);
+        if (cached != null) return cached;
+        final HttpHandler result = resolveWildcard(hostHeader, start, end);
+        // Anyone can send any Host header, so the cache is dropped rather than allowed to grow
+        if (resolved.size() >= cacheSize) resolved.clear();
+        resolved.put(hostHeader, result);
+        return result;
+    }
+
+    private HttpHandler resolveWildcard(final String host, final int start, final int end) {
+        if (!hasWildcards) return fallback;
+        for (int dot = host.indexOf('.', start); dot != -1 && dot < end - 1; dot = host.indexOf('.', dot + 1)) {
+            final HttpHandler handler = wildcards.find(host, dot + 1, end);
+            if (handler != null) return handler;
+        }
+        return fallback;
+    }
+
+    private static char toLowerCase(final char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -3,16 +3,191 @@ package extension.undertow.server;
 import io.undertow.Undertow;
 import io.undertow.server.HttpHandler;
 
-import static io.undertow.UndertowOptions.ENABLE_HTTP2;
+import javax.net.ssl.SSLContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.undertow.UndertowOptions.*;
+import static java.lang.String.format;
+import static org.xnio.Options.BACKLOG;
+import static org.xnio.Options.TCP_NODELAY;
 
 public enum HttpServer {;
 
     public static Undertow newHttpServer(final String address, final int port, final boolean hasHttp2, final HttpHandler handler) {
-        return Undertow.builder()
-            .setServerOption(ENABLE_HTTP2, hasHttp2)
-            .addHttpListener(port, address)
-            .setHandler(handler)
-            .build();
+        return newHttpServer().httpListener(address, port).http2(hasHttp2).handler(handler).build();
+    }
+
+    public static Builder newHttpServer() {
+        return new Builder();
+    }
+
+    public record HttpsListener(String address, int port, SSLContext context) {}
+
+    // Only the settings that were called are passed on, everything else keeps Undertow's own default
+    public static final class Builder {
+        private final List<String> httpAddresses = new ArrayList<>();
+        private final List<Integer> httpPorts = new ArrayList<>();
+        private final List<HttpsListener> httpsListeners = new ArrayList<>();
+        private HttpHandler handler;
+        private boolean http2 = false;
+        // Null means not set, Undertow then uses its own default and no option is passed
+        private Integer ioThreads;
+        private Integer workerThreads;
+        private Integer bufferSize;
+        private Boolean directBuffers;
+        private Integer backlog;
+        private Boolean tcpNoDelay;
+        private Integer idleTimeout;
+        private Integer noRequestTimeout;
+        private Integer requestParseTimeout;
+        private Integer maxHeaders;
+        private Integer maxHeaderSize;
+        private Integer http2InitialWindowSize;
+        private Integer http2MaxConcurrentStreams;
+
+        private Builder() {}
+
+        public Builder httpListener(final String address, final int port) {
+            httpAddresses.add(address);
+            httpPorts.add(port);
+            return this;
+        }
+        public Builder httpsListener(final String address, final int port, final SSLContext context) {
+            httpsListeners.add(new HttpsListener(address, port, context));
+            return this;
+        }
+        public Builder handler(final HttpHandler handler) {
+            this.handler = handler;
+            return this;
+        }
+        public Builder http2(final boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+        public Builder ioThreads(final int ioThreads) {
+            this.ioThreads = requirePositive(ioThreads, "ioThreads");
+            return this;
+        }
+        public Builder workerThreads(final int workerThreads) {
+            this.workerThreads = requirePositive(workerThreads, "workerThreads");
+            return this;
+        }
+        public Builder bufferSize(final int bufferSize) {
+            this.bufferSize = requirePositive(bufferSize, "bufferSize");
+            return this;
+        }
+        public Builder directBuffers(final boolean directBuffers) {
+            this.directBuffers = directBuffers;
+            return this;
+        }
+        public Builder backlog(final int backlog) {
+            this.backlog = requirePositive(backlog, "backlog");
+            return this;
+        }
+        public Builder tcpNoDelay(final boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+        public Builder idleTimeout(final int millis) {
+            this.idleTimeout = requirePositive(millis, "idleTimeout");
+            return this;
+        }
+        public Builder noRequestTimeout(final int millis) {
+            this.noRequestTimeout = requirePositive(millis, "noRequestTimeout");
+            return this;
+        }
+        public Builder requestParseTimeout(final int millis) {
+            this.requestParseTimeout = requirePositive(millis, "requestParseTimeout");
+            return this;
+        }
+        public Builder maxHeaders(final int maxHeaders) {
+            this.maxHeaders = requirePositive(maxHeaders, "maxHeaders");
+            return this;
+        }
+        public Builder maxHeaderSize(final int maxHeaderSize) {
+            this.maxHeaderSize = requirePositive(maxHeaderSize, "maxHeaderSize");
+            return this;
+        }
+        public Builder http2InitialWindowSize(final int bytes) {
+            this.http2InitialWindowSize = requirePositive(bytes, "http2InitialWindowSize");
+            return this;
+        }
+        public Builder http2MaxConcurrentStreams(final int streams) {
+            this.http2MaxConcurrentStreams = requirePositive(streams, "http2MaxConcurrentStreams");
+            return this;
+        }
+
+        public Undertow build() {
+            if (handler == null) throw new IllegalStateException("Missing handler");
+            if (httpPorts.isEmpty() && httpsListeners.isEmpty()) throw new IllegalStateException("Missing listener");
+
+            final var builder = Undertow.builder()
+                .setServerOption(ENABLE_HTTP2, http2)
+                .setHandler(handler);
+            if (ioThreads != null) builder.setIoThreads(ioThreads);
+            if (workerThreads != null) builder.setWorkerThreads(workerThreads);
+            if (bufferSize != null) builder.setBufferSize(bufferSize);
+            if (directBuffers != null) builder.setDirectBuffers(directBuffers);
+            if (backlog != null) builder.setSocketOption(BACKLOG, backlog);
+            if (tcpNoDelay != null) builder.setSocketOption(TCP_NODELAY, tcpNoDelay);
+            if (idleTimeout != null) builder.setServerOption(IDLE_TIMEOUT, idleTimeout);
+            if (noRequestTimeout != null) builder.setServerOption(NO_REQUEST_TIMEOUT, noRequestTimeout);
+            if (requestParseTimeout != null) builder.setServerOption(REQUEST_PARSE_TIMEOUT, requestParseTimeout);
+            if (maxHeaders != null) builder.setServerOption(MAX_HEADERS, maxHeaders);
+            if (maxHeaderSize != null) builder.setServerOption(MAX_HEADER_SIZE, maxHeaderSize);
+            if (http2InitialWindowSize != null) builder.setServerOption(HTTP2_SETTINGS_INITIAL_WINDOW_SIZE, http2InitialWindowSize);
+            if (http2MaxConcurrentStreams != null) builder.setServerOption(HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS, http2MaxConcurrentStreams);
+            for (int i = 0; i < httpPorts.size(); i++) {
+                builder.addHttpListener(httpPorts.get(i), httpAddresses.get(i));
+            }
+            for (final var listener : httpsListeners) {
+                builder.addHttpsListener(listener.port, listener.address, listener.context);
+            }
+            return builder.build();
+        }
+
+        // Meant to be logged at startup so the effective configuration of a node can be checked. Options
+        // that were not set show the value Undertow derives for this JVM, marked as default. They are
+        // only computed here, build() still leaves them to Undertow.
+        public String describe() {
+            final var listeners = new ArrayList<String>();
+            for (int i = 0; i < httpPorts.size(); i++) {
+                listeners.add("http://" + httpAddresses.get(i) + ":" + httpPorts.get(i));
+            }
+            for (final var listener : httpsListeners) {
+                listeners.add("https://" + listener.address + ":" + listener.port);
+            }
+            // Same rules as the Undertow.Builder constructor, the worker count follows the default io
+            // thread count even when ioThreads was set
+            final int defaultIoThreads = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+            final long maxMemory = Runtime.getRuntime().maxMemory();
+            final int defaultBufferSize = maxMemory < 64 * MB ? 512 : maxMemory < 128 * MB ? 1024 : 16 * 1024 - 20;
+            final boolean defaultDirectBuffers = maxMemory >= 64 * MB;
+            return format("listeners=%s http2=%b ioThreads=%s workerThreads=%s bufferSize=%s directBuffers=%s"
+                    + " backlog=%s tcpNoDelay=%s idleTimeout=%s noRequestTimeout=%s requestParseTimeout=%s"
+                    + " maxHeaders=%s maxHeaderSize=%s http2InitialWindowSize=%s http2MaxConcurrentStreams=%s",
+                listeners, http2, effective(ioThreads, defaultIoThreads), effective(workerThreads, defaultIoThreads * 8),
+                effective(bufferSize, defaultBufferSize), effective(directBuffers, defaultDirectBuffers),
+                effective(backlog, 1000), effective(tcpNoDelay, true), millis(idleTimeout, "none"),
+                millis(noRequestTimeout, "60000ms"), millis(requestParseTimeout, "none"),
+                effective(maxHeaders, DEFAULT_MAX_HEADERS), effective(maxHeaderSize, DEFAULT_MAX_HEADER_SIZE),
+                effective(http2InitialWindowSize, 65535), effective(http2MaxConcurrentStreams, "unlimited"));
+        }
+
+        private static final long MB = 1024 * 1024;
+
+        private static String effective(final Object value, final Object defaultValue) {
+            return value != null ? value.toString() : defaultValue + " (default)";
+        }
+        private static String millis(final Integer value, final String defaultValue) {
+            return value != null ? value + "ms" : defaultValue + " (default)";
+        }
+
+        private static int requirePositive(final int value, final String name) {
+            if (value <= 0) throw new IllegalArgumentException(name + " must be positive");
+            return value;
+        }
     }
 
 }
@@ -0,0 +1,638 @@
+package extension.undertow.server;
+
+import extension.undertow.error.HttpError;
+import extension.undertow.error.InvalidInput;
+import extension.undertow.error.RequestTooLarge;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static extension.undertow.server.ResponseBuilder.respondInternalError;
+import static java.lang.String.format;
+
+// Binds a JSON request body straight from the byte stream to a Java type, without first reading the
+// body into a String. The body, the nesting depth and every string are limited, a body over the
+// limit is refused with RequestTooLarge and every other problem is an InvalidInput that names the
+// byte position. Supported targets are records, enums, strings, primitives and their wrappers,
+// BigDecimal, BigInteger, arrays, List, Set, Map with string keys and Object (which becomes Map,
+// List, String, Long, Double, Boolean or null). Unknown fields are skipped, missing fields get the
+// default value.
+//
+// This is not the JsonSerializer of the application. Field names are the record component names as
+// written, naming strategies, type adapters and annotations of the serializer are not applied. Only
+// records are bound, so a client can set exactly the components the record declares and nothing
+// else, other classes are refused with an IllegalArgumentException.
+//
+// streamArray() hands over the elements of a top level array one at a time, so a large batch import
+// only ever holds one element in memory. That needs a blocking exchange. bindAsync() collects the
+// whole body in memory before it binds, up to maxBytes, it keeps the IO thread free but does not
+// keep memory flat.
+public final class JsonBinder {
+
+    public interface BoundHandler<T> {
+        void handleRequest(HttpServerExchange exchange, T body) throws Exception;
+    }
+    public interface ElementHandler<T> {
+        void handleElement(T element) throws Exception;
+    }
+
+    public static Builder newJsonBinder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private long maxBytes = 1024 * 1024;
+        private int maxDepth = 32;
+        private int maxStringLength = 64 * 1024;
+
+        private Builder() {}
+
+        public Builder maxBytes(final long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+        public Builder maxDepth(final int maxDepth) {
+            this.maxDepth = maxDepth;
+            return this;
+        }
+        public Builder maxStringLength(final int maxStringLength) {
+            this.maxStringLength = maxStringLength;
+            return this;
+        }
+        public JsonBinder build() {
+            return new JsonBinder(this);
+        }
+    }
+
+    private final long maxBytes;
+    private final int maxDepth;
+    private final int maxStringLength;
+
+    private JsonBinder(final Builder builder) {
+        this.maxBytes = builder.maxBytes;
+        this.maxDepth = builder.maxDepth;
+        this.maxStringLength = builder.maxStringLength;
+    }
+
+    // Blocking, the exchange has to be in blocking mode
+    public <T> T bind(final HttpServerExchange exchange, final Class<T> type) throws IOException, InvalidInput, RequestTooLarge {
+        rejectLargeContentLength(exchange);
+        return bind(exchange.getInputStream(), type);
+    }
+    public <T> T bind(final InputStream in, final Class<T> type) throws IOException, InvalidInput, RequestTooLarge {
+        final var reader = new JsonReader(in);
+        final Object value = readValue(reader, type, 0);
+        reader.expectEnd();
+        return type.isPrimitive() ? boxed(value) : type.cast(value);
+    }
+
+    public <T> void streamArray(final HttpServerExchange exchange, final Class<T> elementType, final ElementHandler<T> handler) throws Exception {
+        rejectLargeContentLength(exchange);
+        streamArray(exchange.getInputStream(), elementType, handler);
+    }
+    public <T> void streamArray(final InputStream in, final Class<T> elementType, final ElementHandler<T> handler) throws Exception {
+        final var reader = new JsonReader(in);
+        reader.expect('[');
+        if (reader.peek() == ']') {
+            reader.read();
+        } else {
+            while (true) {
+                final Object element = readValue(reader, elementType, 1);
+                handler.handleElement(elementType.isPrimitive() ? boxed(element) : elementType.cast(element));
+                final int next = reader.read();
+                if (next == ']') break;
+                if (next != ',') throw reader.invalid("expected ',' or ']'");
+            }
+        }
+        reader.expectEnd();
+    }
+
+    // The IO thread collects the body as it arrives, without blocking and without a worker. Once the
+    // last chunk is there a worker binds it from the collected chunks and calls the handler. A body
+    // over the limit is refused as soon as it grows past it. Failures of the handler are answered
+    // like logError does, an outer logError can't see them on the worker.
+    public <T> HttpHandler bindAsync(final Logger logger, final Class<T> type, final BoundHandler<T> next) {
+        requireBindable(type);
+        return exchange -> {
+            rejectLargeContentLength(exchange);
+            final var body = new ChunkedBody();
+            exchange.getRequestReceiver().receivePartialBytes((received, data, last) -> {
+                if (body.size + data.length > maxBytes) {
+                    received.getRequestReceiver().pause();
+                    new RequestTooLarge(maxBytes).processExchange(received);
+                    return;
+                }
+                body.add(data);
+                if (!last) return;
+                received.startBlocking();
+                received.dispatch(worker -> {
+                    try {
+                        next.handleRequest(worker, bind(body, type));
+                    } catch (final Exception e) {
+                        if (e instanceof HttpError error)
+                            error.processExchange(worker);
+                        else {
+                            logger.error(e);
+                            respondInternalError(worker);
+                        }
+                    } catch (final Error e) {
+                        logger.error(e);
+                        throw e;
+                    }
+                });
+            }, (failed, e) -> {
+                failed.setPersistent(false);
+                failed.endExchange();
+            });
+        };
+    }
+
+    // The chunks of a body received by bindAsync, read back without copying them into one array
+    private static final class ChunkedBody extends InputStream {
+        private final List<byte[]> chunks = new ArrayList<>();
+        private long size;
+        private int chunk;
+        private int position;
+
+        private void add(final byte[] data) {
+            if (data.length == 0) return;
+            chunks.add(data);
+            size += data.length;
+        }
+
+        @Override
+        public int read() {
+            final byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) {
+            if (length == 0) return 0;
+            if (chunk == chunks.size()) return -1;
+            final byte[] current = chunks.get(chunk);
+            final int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, count);
+            position += count;
+            if (position == current.length) {
+                chunks.set(chunk++, null);
+                position = 0;
+            }
+            return count;
+        }
+    }
+
+    private void rejectLargeContentLength(final HttpServerExchange exchange) throws RequestTooLarge {
+        if (exchange.getRequestContentLength() > maxBytes) throw new RequestTooLarge(maxBytes);
+    }
+
+    private Object readValue(final JsonReader reader, final Type type, final int depth) throws IOException, InvalidInput, RequestTooLarge {
+        final Class<?> raw = rawType(type);
+        final int next = reader.peek();
+        if (next == 'n') {
+            reader.expectLiteral("null");
+            if (raw.isPrimitive()) throw reader.invalid("null is not allowed for " + raw.getName());
+            return null;
+        }
+
+        if (raw == String.class) return reader.readString();
+        if (raw == boolean.class || raw == Boolean.class) return reader.readBoolean();
+        if (raw == int.class || raw == Integer.class) return (int) reader.readInteger(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (raw == long.class || raw == Long.class) return reader.readInteger(Long.MIN_VALUE, Long.MAX_VALUE);
+        if (raw == short.class || raw == Short.class) return (short) reader.readInteger(Short.MIN_VALUE, Short.MAX_VALUE);
+        if (raw == byte.class || raw == Byte.class) return (byte) reader.readInteger(Byte.MIN_VALUE, Byte.MAX_VALUE);
+        if (raw == double.class || raw == Double.class) return Double.parseDouble(reader.readNumber());
+        if (raw == float.class || raw == Float.class) return Float.parseFloat(reader.readNumber());
+        if (raw == BigDecimal.class) return new BigDecimal(reader.readNumber());
+        if (raw == BigInteger.class) return reader.readBigInteger();
+        if (raw == char.class || raw == Character.class) {
+            final String value = reader.readString();
+            if (value.length() != 1) throw reader.invalid("expected a single character");
+            return value.charAt(0);
+        }
+        if (raw.isEnum()) return readEnum(reader, raw);
+        if (raw == Object.class) return readAny(reader, depth);
+
+        final int nested = depth + 1;
+        if (nested > maxDepth) throw reader.invalid("nesting is deeper than " + maxDepth);
+        if (raw.isArray()) return readArray(reader, componentType(type), nested);
+        if (Collection.class.isAssignableFrom(raw)) return readCollection(reader, raw, typeArgument(type, 0), nested);
+        if (Map.class.isAssignableFrom(raw)) return readMap(reader, typeArgument(type, 1), nested);
+        requireBindable(raw);
+        return readRecord(reader, raw, nested);
+    }
+
+    // Class.cast refuses the boxed value read for a primitive type, T is its wrapper
+    @SuppressWarnings("unchecked")
+    private static <T> T boxed(final Object value) {
+        return (T) value;
+    }
+
+    private static void requireBindable(final Class<?> type) {
+        if (type.isPrimitive() || type.isRecord() || type.isEnum() || type.isArray() || type == Object.class
+            || type == String.class || type == BigDecimal.class || type == BigInteger.class
+            || Number.class.isAssignableFrom(type) || type == Boolean.class || type == Character.class
+            || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) return;
+        throw new IllegalArgumentException("JsonBinder only binds records, " + type.getName() + " is not one");
+    }
+
+    private static Object readEnum(final JsonReader reader, final Class<?> type) throws IOException, InvalidInput, RequestTooLarge {
+        final String name = reader.readString();
+        for (final Object constant : type.getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(name)) return constant;
+        }
+        throw reader.invalid(format("'%s' is not one of %s", name, List.of(type.getEnumConstants())));
+    }
+
+    private Object readAny(final JsonReader reader, final int depth) throws IOException, InvalidInput, RequestTooLarge {
+        final int next = reader.peek();
+        if (next == '"') return reader.readString();
+        if (next == 't' || next == 'f') return reader.readBoolean();
+        if (next == '{') return readValue(reader, Map.class, depth);
+        if (next == '[') return readValue(reader, List.class, depth);
+        final String number = reader.readNumber();
+        if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            final Long integer = Validator.scanLong(number, Long.MIN_VALUE, Long.MAX_VALUE);
+            if (integer != null) return integer;
+        }
+        return Double.parseDouble(number);
+    }
+
+    private Object readArray(final JsonReader reader, final Type componentType, final int depth) throws IOException, InvalidInput, RequestTooLarge {
+        final Collection<Object> values = readCollection(reader, List.class, componentType, depth);
+        final Object array = Array.newInstance(rawType(componentType), values.size());
+        int index = 0;
+        for (final Object value : values) {
+            Array.set(array, index++, value);
+        }
+        return array;
+    }
+
+    private Collection<Object> readCollection(final JsonReader reader, final Class<?> raw, final Type elementType, final int depth)
+            throws IOException, InvalidInput, RequestTooLarge {
+        final Collection<Object> values = Set.class.isAssignableFrom(raw) ? new LinkedHashSet<>() : new ArrayList<>();
+        reader.expect('[');
+        if (reader.peek() == ']') {
+            reader.read();
+            return values;
+        }
+        while (true) {
+            values.add(readValue(reader, elementType, depth));
+            final int next = reader.read();
+            if (next == ']') return values;
+            if (next != ',') throw reader.invalid("expected ',' or ']'");
+        }
+    }
+
+    private Map<String, Object> readMap(final JsonReader reader, final Type valueType, final int depth) throws IOException, InvalidInput, RequestTooLarge {
+        final Map<String, Object> values = new LinkedHashMap<>();
+        reader.expect('{');
+        if (reader.peek() == '}') {
+            reader.read();
+            return values;
+        }
+        while (true) {
+            final String key = reader.readString();
+            reader.expect(':');
+            values.put(key, readValue(reader, valueType, depth));
+            final int next = reader.read();
+            if (next == '}') return values;
+            if (next != ',') throw reader.invalid("expected ',' or '}'");
+        }
+    }
+
+    private Object readRecord(final JsonReader reader, final Class<?> type, final int depth) throws IOException, InvalidInput, RequestTooLarge {
+        final RecordBinding binding = recordBinding(type);
+        final Object[] arguments = binding.defaults.clone();
+        reader.expect('{');
+        if (reader.peek() == '}') {
+            reader.read();
+        } else {
+            while (true) {
+                final String name = reader.readString();
+                reader.expect(':');
+                final Integer index = binding.indexes.get(name);
+                if (index == null) reader.skipValue(depth, maxDepth);
+                else arguments[index] = readValue(reader, binding.types[index], depth);
+                final int next = reader.read();
+                if (next == '}') break;
+                if (next != ',') throw reader.invalid("expected ',' or '}'");
+            }
+        }
+        try {
+            return binding.constructor.newInstance(arguments);
+        } catch (final ReflectiveOperationException e) {
+            throw new InvalidInput("Could not create " + type.getSimpleName(), e);
+        }
+    }
+
+    private record RecordBinding(Constructor<?> constructor, Map<String, Integer> indexes, Type[] types, Object[] defaults) {}
+
+    private static final Map<Class<?>, RecordBinding> RECORDS = new ConcurrentHashMap<>();
+
+    private static RecordBinding recordBinding(final Class<?> type) {
+        return RECORDS.computeIfAbsent(type, key -> {
+            final RecordComponent[] components = key.getRecordComponents();
+            final Class<?>[] parameterTypes = new Class<?>[components.length];
+            final Type[] types = new Type[components.length];
+            final Object[] defaults = new Object[components.length];
+            final Map<String, Integer> indexes = new HashMap<>();
+            for (int i = 0; i < components.length; i++) {
+                parameterTypes[i] = components[i].getType();
+                types[i] = components[i].getGenericType();
+                defaults[i] = defaultValue(parameterTypes[i]);
+                indexes.put(components[i].getName(), i);
+            }
+            try {
+                final var constructor = key.getDeclaredConstructor(parameterTypes);
+                constructor.setAccessible(true);
+                return new RecordBinding(constructor, indexes, types, defaults);
+            } catch (final NoSuchMethodException e) {
+                throw new IllegalArgumentException("Record " + key.getName() + " has no canonical constructor", e);
+            }
+        });
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (!type.isPrimitive()) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0d;
+        if (type == float.class) return 0.0f;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        return 0;
+    }
+
+    private static Class<?> rawType(final Type type) {
+        if (type instanceof Class<?> c) return c;
+        if (type instanceof ParameterizedType p) return (Class<?>) p.getRawType();
+        if (type instanceof GenericArrayType a) return Array.newInstance(rawType(a.getGenericComponentType()), 0).getClass();
+        if (type instanceof WildcardType w) return rawType(w.getUpperBounds()[0]);
+        return Object.class;
+    }
+    private static Type typeArgument(final Type type, final int index) {
+        if (type instanceof ParameterizedType p && p.getActualTypeArguments().length > index)
+            return p.getActualTypeArguments()[index];
+        return Object.class;
+    }
+    private static Type componentType(final Type type) {
+        if (type instanceof GenericArrayType a) return a.getGenericComponentType();
+        return ((Class<?>) type).getComponentType();
+    }
+
+    // A pull reader over the raw bytes. Strings are decoded from UTF-8 here, everything else in JSON
+    // is ASCII.
+    private final class JsonReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[8192];
+        private int position;
+        private int limit;
+        private long consumed;
+        private final StringBuilder text = new StringBuilder();
+
+        private JsonReader(final InputStream in) {
+            this.in = in;
+        }
+
+        private long bytePosition() {
+            return consumed + position;
+        }
+
+        private InvalidInput invalid(final String message) {
+            return new InvalidInput(format("Invalid JSON at byte %d: %s", bytePosition(), message));
+        }
+
+        private int nextByte() throws IOException, RequestTooLarge {
+            if (position == limit) {
+                consumed += limit;
+                position = 0;
+                limit = in.read(buffer, 0, buffer.length);
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+                if (consumed + limit > maxBytes) throw new RequestTooLarge(maxBytes);
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        private int peek() throws IOException, RequestTooLarge {
+            while (true) {
+                final int next = nextByte();
+                if (next == -1) return -1;
+                if (next != ' ' && next != '\t' && next != '\n' && next != '\r') {
+                    position--;
+                    return next;
+                }
+            }
+        }
+
+        private int read() throws IOException, RequestTooLarge {
+            final int next = peek();
+            if (next != -1) position++;
+            return next;
+        }
+
+        private void expect(final char c) throws IOException, InvalidInput, RequestTooLarge {
+            final int next = read();
+            if (next != c) throw invalid(next == -1 ? "unexpected end of input" : format("expected '%s'", c));
+        }
+
+        private void expectEnd() throws IOException, InvalidInput, RequestTooLarge {
+            if (peek() != -1) throw invalid("unexpected content after the end of the document");
+        }
+
+        private void expectLiteral(final String literal) throws IOException, InvalidInput, RequestTooLarge {
+            peek();
+            for (int i = 0; i < literal.length(); i++) {
+                if (nextByte() != literal.charAt(i)) throw invalid("expected '" + literal + "'");
+            }
+        }
+
+        private boolean readBoolean() throws IOException, InvalidInput, RequestTooLarge {
+            final int next = peek();
+            if (next == 't') {
+                expectLiteral("true");
+                return true;
+            }
+            if (next == 'f') {
+                expectLiteral("false");
+                return false;
+            }
+            throw invalid("expected true or false");
+        }
+
+        private String readString() throws IOException, InvalidInput, RequestTooLarge {
+            expect('"');
+            text.setLength(0);
+            while (true) {
+                int next = nextByte();
+                if (next == -1) throw invalid("unterminated string");
+                if (next == '"') return text.toString();
+                if (text.length() >= maxStringLength) throw invalid("string is longer than " + maxStringLength + " characters");
+                if (next < 0x20) throw invalid("control character in string");
+                if (next == '\\') {
+                    readEscape();
+                } else if (next < 0x80) {
+                    text.append((char) next);
+                } else {
+                    text.appendCodePoint(readUtf8(next));
+                }
+            }
+        }
+
+        private void readEscape() throws IOException, InvalidInput, RequestTooLarge {
+            final int escaped = nextByte();
+            switch (escaped) {
+                case '"', '\\', '/' -> text.append((char) escaped);
+                case 'b' -> text.append('\b');
+                case 'f' -> text.append('\f');
+                case 'n' -> text.append('\n');
+                case 'r' -> text.append('\r');
+                case 't' -> text.append('\t');
+                case 'u' -> {
+                    int c = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int digit = Character.digit(nextByte(), 16);
+                        if (digit == -1) throw invalid("invalid unicode escape");
+                        c = c * 16 + digit;
+                    }
+                    text.append((char) c);
+                }
+                default -> throw invalid("invalid escape sequence");
+            }
+        }
+
+        private int readUtf8(final int first) throws IOException, InvalidInput, RequestTooLarge {
+            final int extra;
+            int codePoint;
+            if ((first & 0xE0) == 0xC0) { extra = 1; codePoint = first & 0x1F; }
+            else if ((first & 0xF0) == 0xE0) { extra = 2; codePoint = first & 0x0F; }
+            else if ((first & 0xF8) == 0xF0) { extra = 3; codePoint = first & 0x07; }
+            else throw invalid("invalid UTF-8");
+            for (int i = 0; i < extra; i++) {
+                final int next = nextByte();
+                if (next == -1 || (next & 0xC0) != 0x80) throw invalid("invalid UTF-8");
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+            // Reject overlong forms and surrogates, both are invalid UTF-8
+            final int minimum = extra == 1 ? 0x80 : extra == 2 ? 0x800 : 0x10000;
+            if (codePoint < minimum || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF))
+                throw invalid("invalid UTF-8");
+            return codePoint;
+        }
+
+        // Checks the JSON number grammar, so the parse methods of the JDK never see an invalid number
+        private String readNumber() throws IOException, InvalidInput, RequestTooLarge {
+            int next = peek();
+            text.setLength(0);
+            if (next == '-') {
+                text.append('-');
+                position++;
+                next = nextByte();
+                if (next != -1) position--;
+            }
+            final int integerStart = text.length();
+            final int integerDigits = readDigits();
+            if (integerDigits == 0) throw invalid("expected a number");
+            if (integerDigits > 1 && text.charAt(integerStart) == '0') throw invalid("leading zeros are not allowed");
+            next = nextByte();
+            if (next == '.') {
+                text.append('.');
+                if (readDigits() == 0) throw invalid("expected digits after '.'");
+                next = nextByte();
+            }
+            if (next == 'e' || next == 'E') {
+                text.append('e');
+                next = nextByte();
+                if (next == '+' || next == '-') text.append((char) next);
+                else if (next != -1) position--;
+                if (readDigits() == 0) throw invalid("expected digits in exponent");
+                next = nextByte();
+            }
+            if (next != -1) position--;
+            if (text.length() > 512) throw invalid("number is too long");
+            return text.toString();
+        }
+
+        private int readDigits() throws IOException, RequestTooLarge {
+            int count = 0;
+            while (true) {
+                final int next = nextByte();
+                if (next < '0' || next > '9') {
+                    if (next != -1) position--;
+                    return count;
+                }
+                if (count < 1024) text.append((char) next);
+                count++;
+            }
+        }
+
+        private long readInteger(final long minimum, final long maximum) throws IOException, InvalidInput, RequestTooLarge {
+            final String number = readNumber();
+            final Long value = Validator.scanLong(number, minimum, maximum);
+            if (value == null) throw invalid("expected a whole number between " + minimum + " and " + maximum);
+            return value;
+        }
+
+        private BigInteger readBigInteger() throws IOException, InvalidInput, RequestTooLarge {
+            final String number = readNumber();
+            if (number.indexOf('.') != -1 || number.indexOf('e') != -1) throw invalid("expected a whole number");
+            return new BigInteger(number);
+        }
+
+        // Skips a value of a field the target doesn't have, without building it
+        private void skipValue(final int depth, final int maxDepth) throws IOException, InvalidInput, RequestTooLarge {
+            final int next = peek();
+            if (next == '"') {
+                readString();
+            } else if (next == 't' || next == 'f') {
+                readBoolean();
+            } else if (next == 'n') {
+                expectLiteral("null");
+            } else if (next == '{' || next == '[') {
+                if (depth + 1 > maxDepth) throw invalid("nesting is deeper than " + maxDepth);
+                final char close = next == '{' ? '}' : ']';
+                read();
+                if (peek() == close) {
+                    read();
+                    return;
+                }
+                while (true) {
+                    if (close == '}') {
+                        readString();
+                        expect(':');
+                    }
+                    skipValue(depth + 1, maxDepth);
+                    final int separator = read();
+                    if (separator == close) return;
+                    if (separator != ',') throw invalid(format("expected ',' or '%s'", close));
+                }
+            } else {
+                readNumber();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,333 @@
+package extension.undertow.server;
+
+import extension.undertow.session.SessionHandlers.UserRequestHandler;
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.encoding.AllowedContentEncodings;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HttpString;
+import io.undertow.util.SameThreadExecutor;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import static extension.undertow.session.SessionStore.getValueForCookie;
+import static io.undertow.util.Headers.*;
+import static io.undertow.util.Methods.GET;
+import static io.undertow.util.Methods.HEAD;
+import static io.undertow.util.StatusCodes.OK;
+import static java.lang.System.currentTimeMillis;
+
+// Short lived server side cache for GET responses. Concurrent misses for the same key wait for a
+// single upstream computation instead of all running it. Once an entry expires, the next request
+// recomputes it while everyone else is served the stale entry for the stale-while-revalidate
+// window. That one request does wait for the upstream: an Undertow handler can only run on a live
+// exchange, so there is no request-less background refresh.
+//
+// Only the headers the wrapped handler set are stored. Headers that outer handlers added before it
+// ran (security headers, a CSP with its nonce, HSTS) are added again by those handlers on every hit,
+// stored headers replace rather than duplicate them. HEAD requests are answered from the GET entry,
+// a HEAD miss goes upstream without storing anything.
+//
+// Entries are keyed on scheme, host and path, so virtual hosts never see each other's pages. Hits
+// read a concurrent map without locking, only storing and evicting take the lock. maxBytes is an
+// estimate of the heap used by the bodies, keys and headers, the oldest stored entries are evicted
+// first.
+//
+// Responses are never shared across users by accident: requests that carry credentials (the
+// session cookie or an Authorization header) bypass the cache unless the UserRequestHandler variant
+// is used with an explicit partition. Responses that set cookies, are marked private or vary on
+// headers that are not part of the key are not stored. Place the cache inside compressResponse so
+// the uncompressed body is stored.
+public final class MicroCache {
+
+    private static final Set<HttpString> UNCACHED_HEADERS = Set.of(
+        CONTENT_LENGTH, TRANSFER_ENCODING, CONTENT_ENCODING, CONNECTION, DATE, SET_COOKIE, AGE);
+
+    public static Builder newMicroCache() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private long ttlMillis = 1000;
+        private long staleMillis = 0;
+        private long maxBytes = 16 * 1024 * 1024;
+        private int maxEntryBytes = 256 * 1024;
+        private final Set<String> queryParameters = new TreeSet<>();
+        private final Set<String> varyHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        private String sessionCookieName = "session";
+
+        private Builder() {}
+
+        public Builder ttl(final Duration ttl) {
+            this.ttlMillis = ttl.toMillis();
+            return this;
+        }
+        public Builder staleWhileRevalidate(final Duration window) {
+            this.staleMillis = window.toMillis();
+            return this;
+        }
+        public Builder maxBytes(final long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+        public Builder maxEntryBytes(final int maxEntryBytes) {
+            this.maxEntryBytes = maxEntryBytes;
+            return this;
+        }
+        public Builder queryParameters(final String... names) {
+            queryParameters.addAll(List.of(names));
+            return this;
+        }
+        public Builder varyHeaders(final String... names) {
+            varyHeaders.addAll(List.of(names));
+            return this;
+        }
+        public Builder sessionCookieName(final String name) {
+            this.sessionCookieName = name;
+            return this;
+        }
+        public MicroCache build() {
+            return new MicroCache(this);
+        }
+    }
+
+    private record Entry(int status, List<HttpString> names, List<String> values, byte[] body, long created) {}
+
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final List<String> queryParameters;
+    private final List<String> varyHeaders;
+    private final String sessionCookieName;
+
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Same entries in the order they were stored, changed together with entries under the lock
+    private final LinkedHashMap<String, Entry> stored = new LinkedHashMap<>();
+    private long bytes;
+
+    private MicroCache(final Builder builder) {
+        this.ttlMillis = builder.ttlMillis;
+        this.staleMillis = builder.staleMillis;
+        this.maxBytes = builder.maxBytes;
+        this.maxEntryBytes = builder.maxEntryBytes;
+        this.queryParameters = List.copyOf(builder.queryParameters);
+        this.varyHeaders = List.copyOf(builder.varyHeaders);
+        this.sessionCookieName = builder.sessionCookieName;
+    }
+
+    public HttpHandler cache(final HttpHandler next) {
+        return exchange -> {
+            if (!isCacheable(exchange) || hasCredentials(exchange)) {
+                next.handleRequest(exchange);
+                return;
+            }
+            handle(exchange, toKey(exchange, null), next);
+        };
+    }
+
+    // The partition decides who may share a response, return a user or tenant id to keep responses
+    // per user, a constant to share them between all sessions or null to skip the cache
+    public <T> UserRequestHandler<T> cache(final Function<T, String> partition, final UserRequestHandler<T> next) {
+        return (session, exchange) -> {
+            final String scope = isCacheable(exchange) ? partition.apply(session) : null;
+            if (scope == null) {
+                next.handleRequest(session, exchange);
+                return;
+            }
+            handle(exchange, toKey(exchange, scope), upstream -> next.handleRequest(session, upstream));
+        };
+    }
+
+    public synchronized void invalidateAll() {
+        stored.clear();
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void handle(final HttpServerExchange exchange, final String key, final HttpHandler upstream) throws Exception {
+        final long now = currentTimeMillis();
+        final Entry entry = lookup(key, now);
+        if (entry != null && now - entry.created < ttlMillis) {
+            serve(exchange, entry, now);
+            return;
+        }
+        // A HEAD response has no body to store, it may only reuse what a GET stored
+        if (HEAD.equals(exchange.getRequestMethod())) {
+            if (entry != null) serve(exchange, entry, now);
+            else upstream.handleRequest(exchange);
+            return;
+        }
+
+        final var flight = new CompletableFuture<Entry>();
+        final var leader = inFlight.putIfAbsent(key, flight);
+        if (leader == null) {
+            computeUpstream(exchange, key, flight, upstream);
+        } else if (entry != null) {
+            serve(exchange, entry, now);
+        } else {
+            // Resume on the kind of thread the request arrived on, a blocking upstream stays off the IO thread
+            final Executor executor = exchange.isInIoThread() ? exchange.getIoThread() : exchange.getConnection().getWorker();
+            exchange.dispatch(SameThreadExecutor.INSTANCE, () -> leader.whenComplete((result, failure) ->
+                executor.execute(() -> Connectors.executeRootHandler(result == null ? upstream
+                    : follower -> serve(follower, result, currentTimeMillis()), exchange))));
+        }
+    }
+
+    private void computeUpstream(final HttpServerExchange exchange, final String key
+            , final CompletableFuture<Entry> flight, final HttpHandler upstream) throws Exception {
+        final boolean encodedOutside = exchange.getAttachment(AllowedContentEncodings.ATTACHMENT_KEY) != null;
+        final var capture = new ResponseCapture(maxEntryBytes);
+        final var outerHeaders = snapshot(exchange.getResponseHeaders());
+        exchange.addResponseWrapper(capture);
+        exchange.addExchangeCompleteListener((completed, nextListener) -> {
+            Entry result = null;
+            try {
+                result = toEntry(completed, capture, encodedOutside, outerHeaders);
+                if (result != null) store(key, result);
+            } finally {
+                inFlight.remove(key, flight);
+                flight.complete(result);
+                nextListener.proceed();
+            }
+        });
+        upstream.handleRequest(exchange);
+    }
+
+    private static Map<HttpString, List<String>> snapshot(final HeaderMap headers) {
+        final Map<HttpString, List<String>> snapshot = new HashMap<>();
+        for (final var header : headers) {
+            snapshot.put(header.getHeaderName(), new ArrayList<>(header));
+        }
+        return snapshot;
+    }
+
+    private Entry toEntry(final HttpServerExchange exchange, final ResponseCapture capture, final boolean encodedOutside
+            , final Map<HttpString, List<String>> outerHeaders) {
+        if (exchange.getStatusCode() != OK || !capture.isComplete()) return null;
+
+        final HeaderMap headers = exchange.getResponseHeaders();
+        if (headers.contains(SET_COOKIE)) return null;
+        if (headers.contains(CONTENT_ENCODING) && !encodedOutside) return null;
+        final String cacheControl = headers.getFirst(CACHE_CONTROL);
+        if (cacheControl != null && cacheControl.contains("private")) return null;
+        final var vary = headers.get(VARY);
+        if (vary != null) {
+            for (final String value : vary) {
+                for (final String name : value.split(",")) {
+                    final String header = name.trim();
+                    if (header.equals("*")) return null;
+                    if (!header.equalsIgnoreCase(ACCEPT_ENCODING_STRING) && !varyHeaders.contains(header)) return null;
+                }
+            }
+        }
+
+        final var names = new ArrayList<HttpString>();
+        final var values = new ArrayList<String>();
+        for (final var header : headers) {
+            if (UNCACHED_HEADERS.contains(header.getHeaderName())) continue;
+            final List<String> outer = outerHeaders.get(header.getHeaderName());
+            for (final String value : header) {
+                if (outer != null && outer.remove(value)) continue;
+                names.add(header.getHeaderName());
+                values.add(value);
+            }
+        }
+        return new Entry(exchange.getStatusCode(), names, values, capture.body(), currentTimeMillis());
+    }
+
+    private static void serve(final HttpServerExchange exchange, final Entry entry, final long now) {
+        exchange.setStatusCode(entry.status);
+        final var headers = exchange.getResponseHeaders();
+        // The values of one header are stored next to each other, the first replaces what is there
+        for (int i = 0; i < entry.names.size(); i++) {
+            final HttpString name = entry.names.get(i);
+            if (i == 0 || !name.equals(entry.names.get(i - 1))) headers.put(name, entry.values.get(i));
+            else headers.add(name, entry.values.get(i));
+        }
+        headers.put(AGE, Long.toString((now - entry.created) / 1000));
+        exchange.getResponseSender().send(ByteBuffer.wrap(entry.body));
+    }
+
+    private Entry lookup(final String key, final long now) {
+        final Entry entry = entries.get(key);
+        if (entry == null || now - entry.created < ttlMillis + staleMillis) return entry;
+        remove(key, entry);
+        return null;
+    }
+
+    private synchronized void remove(final String key, final Entry entry) {
+        if (!stored.remove(key, entry)) return;
+        entries.remove(key, entry);
+        bytes -= sizeOf(key, entry);
+    }
+
+    private synchronized void store(final String key, final Entry entry) {
+        final Entry previous = stored.remove(key);
+        if (previous != null) bytes -= sizeOf(key, previous);
+        stored.put(key, entry);
+        entries.put(key, entry);
+        bytes += sizeOf(key, entry);
+        final var eldest = stored.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            final var evicted = eldest.next();
+            eldest.remove();
+            entries.remove(evicted.getKey(), evicted.getValue());
+            bytes -= sizeOf(evicted.getKey(), evicted.getValue());
+        }
+    }
+
+    // A rough heap estimate: two bytes per char for strings, the bytes of the body and header names
+    // and a fixed amount for the objects around them
+    private static long sizeOf(final String key, final Entry entry) {
+        long size = 128 + entry.body.length + 2L * key.length();
+        for (int i = 0; i < entry.names.size(); i++) {
+            size += 48 + entry.names.get(i).length() + 2L * entry.values.get(i).length();
+        }
+        return size;
+    }
+
+    private boolean isCacheable(final HttpServerExchange exchange) {
+        final HttpString method = exchange.getRequestMethod();
+        return GET.equals(method) || HEAD.equals(method);
+    }
+
+    private boolean hasCredentials(final HttpServerExchange exchange) {
+        return exchange.getRequestHeaders().contains(AUTHORIZATION)
+            || getValueForCookie(exchange, sessionCookieName) != null;
+    }
+
+    private String toKey(final HttpServerExchange exchange, final String scope) {
+        final var key = new StringBuilder(128);
+        key.append(GET).append(' ').append(exchange.getRequestScheme()).append("://")
+            .append(exchange.getHostAndPort()).append(exchange.getRequestPath());
+        for (final String name : queryParameters) {
+            final Deque<String> values = exchange.getQueryParameters().get(name);
+            key.append('\0').append(name).append('=');
+            if (values != null) key.append(String.join("\1", values));
+        }
+        for (final String name : varyHeaders) {
+            final var values = exchange.getRequestHeaders().get(name);
+            key.append('\0').append(name).append(':');
+            if (values != null) key.append(String.join("\1", values));
+        }
+        if (scope != null) key.append('\0').append("scope=").append(scope);
+        return key.toString();
+    }
+
+}
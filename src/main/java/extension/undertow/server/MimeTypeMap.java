@@ -16,6 +16,13 @@ public enum MimeTypeMap {;
             entry(".svg", "image/svg+xml"),
             entry(".htm", "text/html"),
             entry(".html", "text/html"),
+            entry(".css", "text/css"),
+            entry(".js", "application/javascript"),
+            entry(".mjs", "application/javascript"),
+            entry(".txt", "text/plain"),
+            entry(".xml", "application/xml"),
+            entry(".webp", "image/webp"),
+            entry(".woff2", "font/woff2"),
             entry(".json", "application/json"),
             entry(".pdf", "application/pdf")
     );
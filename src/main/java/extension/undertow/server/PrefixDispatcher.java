@@ -0,0 +1,129 @@
+package extension.undertow.server;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Sends a request to the handler registered for the longest prefix of its path, found in a single
+// scan over a character trie. Prefixes match whole segments, '/api' matches '/api' and '/api/users'
+// but not '/apis'. A trailing slash on a prefix is ignored and '/' matches every path.
+//
+// The relative path is used for matching, so dispatchers can be nested. With stripPrefix the
+// matched prefix is moved from the relative path to the resolved path, the way Undertow's
+// PathHandler does it, and the routers behind the dispatcher see paths relative to their prefix.
+public final class PrefixDispatcher implements HttpHandler {
+
+    private final int[] firstEdge;
+    private final char[] edgeLabels;
+    private final int[] edgeTargets;
+    private final int[] handlerIndex;
+    private final HttpHandler[] handlers;
+    private final String[] prefixes;
+    private final HttpHandler noMatch;
+    private final boolean stripPrefix;
+
+    PrefixDispatcher(final Map<String, HttpHandler> routes, final HttpHandler noMatch, final boolean stripPrefix) {
+        this.noMatch = noMatch;
+        this.stripPrefix = stripPrefix;
+
+        final var normalized = new TreeMap<String, HttpHandler>();
+        for (final var route : routes.entrySet()) {
+            final String prefix = normalize(route.getKey());
+            if (normalized.put(prefix, route.getValue()) != null)
+                throw new IllegalArgumentException("Prefix registered twice: " + route.getKey());
+        }
+        this.handlers = normalized.values().toArray(new HttpHandler[0]);
+        this.prefixes = normalized.keySet().toArray(new String[0]);
+
+        // Build with lists first, then lay out the edges of every node next to each other
+        final List<TreeMap<Character, Integer>> nodes = new ArrayList<>();
+        final List<Integer> handlerOfNode = new ArrayList<>();
+        nodes.add(new TreeMap<>());
+        handlerOfNode.add(-1);
+        for (int i = 0; i < prefixes.length; i++) {
+            int node = 0;
+            for (final char c : prefixes[i].toCharArray()) {
+                Integer next = nodes.get(node).get(c);
+                if (next == null) {
+                    next = nodes.size();
+                    nodes.get(node).put(c, next);
+                    nodes.add(new TreeMap<>());
+                    handlerOfNode.add(-1);
+                }
+                node = next;
+            }
+            handlerOfNode.set(node, i);
+        }
+
+        this.firstEdge = new int[nodes.size() + 1];
+        this.handlerIndex = new int[nodes.size()];
+        int edges = 0;
+        for (final var node : nodes) edges += node.size();
+        this.edgeLabels = new char[edges];
+        this.edgeTargets = new int[edges];
+        int edge = 0;
+        for (int node = 0; node < nodes.size(); node++) {
+            firstEdge[node] = edge;
+            handlerIndex[node] = handlerOfNode.get(node);
+            for (final var child : nodes.get(node).entrySet()) {
+                edgeLabels[edge] = child.getKey();
+                edgeTargets[edge] = child.getValue();
+                edge++;
+            }
+        }
+        firstEdge[nodes.size()] = edge;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final String path = exchange.getRelativePath();
+        final int match = longestPrefix(path);
+        if (match == -1) {
+            noMatch.handleRequest(exchange);
+            return;
+        }
+        if (stripPrefix) strip(exchange, path, prefixes[match]);
+        handlers[match].handleRequest(exchange);
+    }
+
+    private int longestPrefix(final String path) {
+        int best = isBoundary(path, 0) ? handlerIndex[0] : -1;
+        int node = 0;
+        for (int i = 0; i < path.length(); i++) {
+            node = child(node, path.charAt(i));
+            if (node == -1) break;
+            if (handlerIndex[node] != -1 && isBoundary(path, i + 1)) best = handlerIndex[node];
+        }
+        return best;
+    }
+
+    private int child(final int node, final char c) {
+        for (int edge = firstEdge[node], end = firstEdge[node + 1]; edge < end; edge++) {
+            if (edgeLabels[edge] == c) return edgeTargets[edge];
+        }
+        return -1;
+    }
+
+    private static boolean isBoundary(final String path, final int position) {
+        return position == path.length() || path.charAt(position) == '/';
+    }
+
+    private static void strip(final HttpServerExchange exchange, final String path, final String prefix) {
+        if (prefix.isEmpty()) return;
+        final String remaining = path.substring(prefix.length());
+        exchange.setRelativePath(remaining.isEmpty() ? "/" : remaining);
+        exchange.setResolvedPath(exchange.getResolvedPath() + prefix);
+    }
+
+    private static String normalize(final String prefix) {
+        if (!prefix.startsWith("/")) throw new IllegalArgumentException("Prefix must start with a '/': " + prefix);
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == '/') end--;
+        return prefix.substring(0, end);
+    }
+
+}
@@ -1,8 +1,13 @@
 package extension.undertow.server;
 
+import extension.undertow.error.HttpError;
 import extension.undertow.error.InvalidInput;
+import extension.undertow.error.RequestTooLarge;
+import extension.undertow.model.Checked;
 import extension.undertow.model.Header;
+import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RequestTooBigException;
 import io.undertow.server.handlers.form.FormData;
 import io.undertow.server.handlers.form.FormParserFactory;
 import io.undertow.util.HeaderMap;
@@ -17,6 +22,10 @@ import java.util.Set;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
+import static extension.undertow.model.Checked.invalid;
+import static extension.undertow.model.Checked.valid;
+import static extension.undertow.server.ResponseBuilder.respondInternalError;
+import static extension.undertow.server.Validator.scanLong;
 import static io.undertow.util.Headers.X_FORWARDED_FOR;
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -51,10 +60,9 @@ public enum RequestParser {;
         return toEnumValue(getMandatoryString(queryString, parameter), enumClass);
     }
     public static long getMandatoryLong(final String queryString, final String parameter) throws InvalidInput {
-        try { return Long.parseLong(getMandatoryString(queryString, parameter)); }
-        catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter %s must contain a long", parameter));
-        }
+        final Long number = scanLong(getMandatoryString(queryString, parameter), Long.MIN_VALUE, Long.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter %s must contain a long", parameter));
+        return number;
     }
     public static String getMandatoryString(final String queryString, final String parameter) throws InvalidInput {
         if (!isNullOrEmpty(queryString)) {
@@ -87,16 +95,14 @@ public enum RequestParser {;
         return value.getValue();
     }
     public static int getMandatoryInteger(final FormData formData, final String parameter) throws InvalidInput {
-        try { return Integer.parseInt(getMandatoryString(formData, parameter)); }
-        catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
-        }
+        final Long number = scanLong(getMandatoryString(formData, parameter), Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
+        return number.intValue();
     }
     public static long getMandatoryLong(final FormData formData, final String parameter) throws InvalidInput {
-        try { return Long.parseLong(getMandatoryString(formData, parameter)); }
-        catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter '%s' must contain a long", parameter));
-        }
+        final Long number = scanLong(getMandatoryString(formData, parameter), Long.MIN_VALUE, Long.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter '%s' must contain a long", parameter));
+        return number;
     }
     public static boolean getMandatoryBoolean(final FormData formData, final String parameter) throws InvalidInput {
         final String value = getMandatoryString(formData, parameter);
@@ -125,19 +131,17 @@ public enum RequestParser {;
         final var value = formData.getFirst(parameter);
         if (value == null || value.getValue() == null || value.getValue().isEmpty()) return defaultValue;
 
-        try { return Integer.parseInt(value.getValue()); }
-        catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
-        }
+        final Long number = scanLong(value.getValue(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
+        return number.intValue();
     }
     public static Long getOptionalLong(final FormData formData, final String parameter, final Long defaultValue) throws InvalidInput {
         final var value = formData.getFirst(parameter);
         if (value == null || value.getValue() == null || value.getValue().isEmpty()) return defaultValue;
 
-        try { return Long.parseLong(value.getValue()); }
-        catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
-        }
+        final Long number = scanLong(value.getValue(), Long.MIN_VALUE, Long.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
+        return number;
     }
     public static boolean getOptionalBoolean(final FormData formData, final String parameter, final boolean defaultValue) throws InvalidInput {
         final var value = formData.getFirst(parameter);
@@ -168,10 +172,9 @@ public enum RequestParser {;
         final var params = exchange.getQueryParameters().get(parameter);
         if (params == null || params.isEmpty()) return defaultValue;
 
-        try { return Integer.parseInt(params.getFirst()); }
-        catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
-        }
+        final Long number = scanLong(params.getFirst(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
+        return number.intValue();
     }
 
     public static long getBoundedLong(final HttpServerExchange exchange, final String parameter, final long minimum, final long defaultValue, final long maximum) throws InvalidInput {
@@ -181,10 +184,9 @@ public enum RequestParser {;
         final var params = exchange.getQueryParameters().get(parameter);
         if (params == null || params.isEmpty()) return defaultValue;
 
-        try { return Long.parseLong(params.getFirst()); }
-        catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter '%s' must contain a long", parameter));
-        }
+        final Long number = scanLong(params.getFirst(), Long.MIN_VALUE, Long.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter '%s' must contain a long", parameter));
+        return number;
     }
     public static Boolean getOptionalBoolean(final HttpServerExchange exchange, final String parameter, final Boolean defaultValue) throws InvalidInput {
         final var params = exchange.getQueryParameters().get(parameter);
@@ -241,10 +243,9 @@ public enum RequestParser {;
         final Deque<String> params = exchange.getQueryParameters().get(parameter);
         if (params == null || params.isEmpty()) throw new InvalidInput(format("Missing parameter '%s'", parameter));
 
-        try { return Integer.parseInt(params.getFirst()); }
-        catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
-        }
+        final Long number = scanLong(params.getFirst(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
+        return number.intValue();
     }
     public static boolean getMandatoryBoolean(final HttpServerExchange exchange, final String parameter) throws InvalidInput {
         final String value = getMandatoryString(exchange, parameter);
@@ -266,10 +267,9 @@ public enum RequestParser {;
         final Deque<String> params = exchange.getQueryParameters().get(parameter);
         if (params == null || params.isEmpty()) throw new InvalidInput(format("Missing parameter '%s'", parameter));
 
-        try { return Long.parseLong(params.getFirst()); }
-        catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter '%s' must contain a long", parameter));
-        }
+        final Long number = scanLong(params.getFirst(), Long.MIN_VALUE, Long.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter '%s' must contain a long", parameter));
+        return number;
     }
 
     public static String getMandatoryString(final HeaderMap headers, final String header) throws InvalidInput {
@@ -307,6 +307,61 @@ public enum RequestParser {;
     public static String getRequestBody(final HttpServerExchange exchange, final Charset charset) throws IOException {
         return new String(exchange.getInputStream().readAllBytes(), charset);
     }
+    public static String getRequestBody(final HttpServerExchange exchange, final Charset charset, final int maxBytes)
+            throws IOException, RequestTooLarge {
+        rejectLargeContentLength(exchange, maxBytes);
+        final byte[] body = exchange.getInputStream().readNBytes(maxBytes + 1);
+        if (body.length > maxBytes) throw new RequestTooLarge(maxBytes);
+        return new String(body, charset);
+    }
+
+    public interface BodyHandler {
+        void handleBody(HttpServerExchange exchange, byte[] body) throws Exception;
+    }
+
+    // Reads the body without holding a worker thread. The IO thread collects the body into a single
+    // heap array of at most maxBytes as it arrives, a worker is only used once the whole body is
+    // there. A Content-Length over the limit is refused before anything is read, a chunked body is
+    // refused as soon as it grows past the limit. Both get a 413 and the connection is closed
+    // afterwards. Failures of the handler are answered like logError does, it runs on a worker after
+    // the handler chain has returned so an outer logError can't see them.
+    public static HttpHandler receiveBody(final Logger logger, final int maxBytes, final BodyHandler next) {
+        return exchange -> {
+            rejectLargeContentLength(exchange, maxBytes);
+            final var receiver = exchange.getRequestReceiver();
+            receiver.setMaxBufferSize(maxBytes);
+            receiver.receiveFullBytes((received, body) -> {
+                received.startBlocking();
+                received.dispatch(worker -> {
+                    try {
+                        next.handleBody(worker, body);
+                    } catch (final Exception e) {
+                        if (e instanceof HttpError error)
+                            error.processExchange(worker);
+                        else {
+                            logger.error(e);
+                            respondInternalError(worker);
+                        }
+                    } catch (final Error e) {
+                        logger.error(e);
+                        throw e;
+                    }
+                });
+            }, (failed, e) -> {
+                if (e instanceof RequestTooBigException) {
+                    new RequestTooLarge(maxBytes).processExchange(failed);
+                } else {
+                    failed.setPersistent(false);
+                    failed.endExchange();
+                }
+            });
+        };
+    }
+
+    private static void rejectLargeContentLength(final HttpServerExchange exchange, final long maxBytes) throws RequestTooLarge {
+        final long contentLength = exchange.getRequestContentLength();
+        if (contentLength > maxBytes) throw new RequestTooLarge(maxBytes);
+    }
 
     private static final Pattern IP_ADDRESS = Pattern.compile("[0-9]+\\.[0-9]+\\.[0-9]+\\.[0-9]+");
     private static boolean isValidOrigin(final String origin) {
@@ -319,18 +374,56 @@ public enum RequestParser {;
         throw new InvalidInput(format("Parameter '%s' must contain 'true' or 'false'", parameter));
     }
     public static long parseLong(final String parameter, final String value) throws InvalidInput {
-        try {
-            return Long.parseLong(value);
-        } catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter '%s' must contain a long", parameter));
-        }
+        final Long number = scanLong(value, Long.MIN_VALUE, Long.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter '%s' must contain a long", parameter));
+        return number;
     }
     public static int parseInt(final String parameter, final String value) throws InvalidInput {
-        try {
-            return Integer.parseInt(value);
-        } catch (final NumberFormatException e) {
-            throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
-        }
+        final Long number = scanLong(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (number == null) throw new InvalidInput(format("Parameter '%s' must contain an integer", parameter));
+        return number.intValue();
+    }
+
+    // The check variants return the problem instead of throwing it, see Checked
+    public static Checked<String> checkMandatoryString(final HttpServerExchange exchange, final String parameter) {
+        final Deque<String> params = exchange.getQueryParameters().get(parameter);
+        if (params == null || params.isEmpty()) return invalid(format("Missing parameter '%s'", parameter));
+        return valid(params.getFirst());
+    }
+    public static Checked<Integer> checkMandatoryInteger(final HttpServerExchange exchange, final String parameter) {
+        final Deque<String> params = exchange.getQueryParameters().get(parameter);
+        if (params == null || params.isEmpty()) return invalid(format("Missing parameter '%s'", parameter));
+        final Long number = scanLong(params.getFirst(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (number == null) return invalid(format("Parameter '%s' must contain an integer", parameter));
+        return valid(number.intValue());
+    }
+    public static Checked<Long> checkMandatoryLong(final HttpServerExchange exchange, final String parameter) {
+        final Deque<String> params = exchange.getQueryParameters().get(parameter);
+        if (params == null || params.isEmpty()) return invalid(format("Missing parameter '%s'", parameter));
+        final Long number = scanLong(params.getFirst(), Long.MIN_VALUE, Long.MAX_VALUE);
+        if (number == null) return invalid(format("Parameter '%s' must contain a long", parameter));
+        return valid(number);
+    }
+    public static Checked<Boolean> checkMandatoryBoolean(final HttpServerExchange exchange, final String parameter) {
+        final Deque<String> params = exchange.getQueryParameters().get(parameter);
+        if (params == null || params.isEmpty()) return invalid(format("Missing parameter '%s'", parameter));
+        if ("true".equalsIgnoreCase(params.getFirst())) return valid(true);
+        if ("false".equalsIgnoreCase(params.getFirst())) return valid(false);
+        return invalid(format("Parameter '%s' must contain 'true' or 'false'", parameter));
+    }
+    public static Checked<Integer> checkOptionalInteger(final HttpServerExchange exchange, final String parameter, final Integer defaultValue) {
+        final Deque<String> params = exchange.getQueryParameters().get(parameter);
+        if (params == null || params.isEmpty()) return valid(defaultValue);
+        final Long number = scanLong(params.getFirst(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (number == null) return invalid(format("Parameter '%s' must contain an integer", parameter));
+        return valid(number.intValue());
+    }
+    public static Checked<Long> checkOptionalLong(final HttpServerExchange exchange, final String parameter, final Long defaultValue) {
+        final Deque<String> params = exchange.getQueryParameters().get(parameter);
+        if (params == null || params.isEmpty()) return valid(defaultValue);
+        final Long number = scanLong(params.getFirst(), Long.MIN_VALUE, Long.MAX_VALUE);
+        if (number == null) return invalid(format("Parameter '%s' must contain a long", parameter));
+        return valid(number);
     }
 
     public static void restrictQueryParameters(final HttpServerExchange exchange, final String... parameters) throws InvalidInput {
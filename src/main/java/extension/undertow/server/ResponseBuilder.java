@@ -3,6 +3,7 @@ package extension.undertow.server;
 import extension.undertow.error.InvalidInput;
 import extension.undertow.model.ContentType;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
 import io.undertow.util.HttpString;
 
 import java.io.IOException;
@@ -10,14 +11,20 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static common.util.JSON.escapeJson;
 import static extension.undertow.server.CacheControlStrategy.NEVER_CACHE;
-import static io.undertow.util.Headers.CONTENT_TYPE;
-import static io.undertow.util.Headers.LOCATION;
-import static io.undertow.util.StatusCodes.FOUND;
-import static io.undertow.util.StatusCodes.INTERNAL_SERVER_ERROR;
+import static extension.undertow.server.ContentHash.hash64;
+import static extension.undertow.server.ContentHash.toHex;
+import static extension.undertow.server.Handlers.isNotModified;
+import static io.undertow.util.Headers.*;
+import static io.undertow.util.StatusCodes.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.Files.newInputStream;
 
 public final class ResponseBuilder {
@@ -27,6 +34,11 @@ public final class ResponseBuilder {
     private static final String
         ERROR_MESSAGE = "{\"success\":false,\"code\":%d,\"errorCode\":%d,\"message\":\"%s\"}";
 
+    // Set by Handlers.autoEtag, holds the largest body that is still hashed
+    static final AttachmentKey<Integer> AUTO_ETAG_LIMIT = AttachmentKey.create(Integer.class);
+
+    private static final HttpString X_ACCEL_BUFFERING = HttpString.tryFromString("X-Accel-Buffering");
+
     public static void respondInternalError(final HttpServerExchange exchange) {
         if (!exchange.isDispatched()) {
             exchange.setStatusCode(INTERNAL_SERVER_ERROR);
@@ -57,7 +69,7 @@ public final class ResponseBuilder {
     private final Serializer serializer;
     private final Map<HttpString, String> headers = new HashMap<>();
     private int status = INTERNAL_SERVER_ERROR;
-    private CacheControlStrategy caching = NEVER_CACHE;
+    private CacheControlStrategy caching;
 
     private ResponseBuilder(final HttpServerExchange exchange) {
         this(exchange, null);
@@ -113,23 +125,37 @@ public final class ResponseBuilder {
     private void preSend() {
         exchange.setStatusCode(status);
         if (status >= 200 && status <= 299) {
-            caching.apply(exchange);
+            applyCaching();
         }
         final var responseHeaders = exchange.getResponseHeaders();
         for (final var entry : headers.entrySet()) {
             responseHeaders.add(entry.getKey(), entry.getValue());
         }
     }
+    // A strategy set with cache() replaces the caching headers a HeaderPolicy added. Without one the
+    // policy's headers stay and NEVER_CACHE is only used when nothing set caching headers yet.
+    private void applyCaching() {
+        final var responseHeaders = exchange.getResponseHeaders();
+        if (caching != null) caching.replace(responseHeaders);
+        else if (!responseHeaders.contains(CACHE_CONTROL)) NEVER_CACHE.apply(responseHeaders);
+    }
     public void send(final String data) {
+        if (exchange.getAttachment(AUTO_ETAG_LIMIT) != null) {
+            send(data.getBytes(UTF_8));
+            return;
+        }
         preSend();
         exchange.getResponseSender().send(data);
     }
 
     public void send(final byte[] data) {
+        if (sentNotModified(data, 0, data.length)) return;
         preSend();
         exchange.getResponseSender().send(ByteBuffer.wrap(data));
     }
     public void send(final ByteBuffer buffer) {
+        if (buffer.hasArray() && sentNotModified(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()))
+            return;
         preSend();
         exchange.getResponseSender().send(buffer);
     }
@@ -146,11 +172,95 @@ public final class ResponseBuilder {
 
     public void send(final Object object) {
         if (serializer == null) throw new IllegalStateException("Missing serializer");
-        preSend();
-        exchange.getResponseSender().send(serializer.toJson(object));
+        send(serializer.toJson(object));
     }
     public void send() {
         preSend();
     }
 
+    // Sends the elements as a JSON array, serialized and written one at a time, see StreamingBody.
+    // The stream, or an iterator that is AutoCloseable, is closed when the response ends.
+    public <T> void send(final Stream<T> elements) {
+        send(elements.iterator(), elements);
+    }
+    public <T> void send(final Iterator<T> elements) {
+        send(elements, elements instanceof AutoCloseable source ? source : null);
+    }
+    private <T> void send(final Iterator<T> elements, final AutoCloseable source) {
+        if (serializer == null) throw new IllegalStateException("Missing serializer");
+        headers.putIfAbsent(CONTENT_TYPE, "application/json");
+        preSend();
+        new StreamingBody<T>(elements, source, "[", ",", "]", (element, out) -> out.append(serializer.toJson(element)))
+            .send(exchange);
+    }
+
+    // Sends the rows as CSV (RFC 4180), the header line first when there is one
+    public <T> void sendCsv(final Stream<T> rows, final List<String> header, final Function<T, List<String>> columns) {
+        sendCsv(rows.iterator(), rows, header, columns);
+    }
+    public <T> void sendCsv(final Iterator<T> rows, final List<String> header, final Function<T, List<String>> columns) {
+        sendCsv(rows, rows instanceof AutoCloseable source ? source : null, header, columns);
+    }
+    private <T> void sendCsv(final Iterator<T> rows, final AutoCloseable source, final List<String> header
+            , final Function<T, List<String>> columns) {
+        headers.putIfAbsent(CONTENT_TYPE, "text/csv; charset=UTF-8");
+        preSend();
+        final var headerLine = new StringBuilder();
+        if (header != null) appendCsvLine(header, headerLine);
+        new StreamingBody<T>(rows, source, headerLine.toString(), "", "", (row, out) -> appendCsvLine(columns.apply(row), out))
+            .send(exchange);
+    }
+    private static void appendCsvLine(final List<String> fields, final StringBuilder out) {
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) out.append(',');
+            final String field = fields.get(i);
+            if (field == null) continue;
+            if (field.indexOf(',') == -1 && field.indexOf('"') == -1 && field.indexOf('\n') == -1 && field.indexOf('\r') == -1) {
+                out.append(field);
+                continue;
+            }
+            out.append('"');
+            for (int j = 0; j < field.length(); j++) {
+                final char c = field.charAt(j);
+                if (c == '"') out.append('"');
+                out.append(c);
+            }
+            out.append('"');
+        }
+        out.append("\r\n");
+    }
+
+    // Starts a response that stays open, see EventStream. The status is always 200 and unless cache()
+    // says otherwise it is sent with NEVER_CACHE, whatever a HeaderPolicy set. Proxies are asked not
+    // to buffer it.
+    public EventStream stream(final EventStream.Format format) {
+        return stream(format, EventStream.DEFAULT_MAX_PENDING, EventStream.DEFAULT_HEARTBEAT_MILLIS);
+    }
+    public EventStream stream(final EventStream.Format format, final int maxPending, final long heartbeatMillis) {
+        status = OK;
+        if (caching == null) caching = NEVER_CACHE;
+        headers.put(CONTENT_TYPE, format.contentType);
+        headers.put(X_ACCEL_BUFFERING, "no");
+        preSend();
+        return new EventStream(exchange, format, serializer, maxPending, heartbeatMillis);
+    }
+
+    // Tags the body with an ETag when Handlers.autoEtag asked for it and answers with a 304 when
+    // the client already has this version
+    private boolean sentNotModified(final byte[] data, final int offset, final int length) {
+        final Integer limit = exchange.getAttachment(AUTO_ETAG_LIMIT);
+        if (limit == null || status != OK || length > limit || headers.containsKey(ETAG)) return false;
+
+        final String etag = "W/\"" + toHex(hash64(data, offset, length)) + "\"";
+        headers.put(ETAG, etag);
+        if (!isNotModified(exchange, etag, headers.get(LAST_MODIFIED))) return false;
+
+        status = NOT_MODIFIED;
+        headers.remove(CONTENT_TYPE);
+        preSend();
+        applyCaching();
+        exchange.endExchange();
+        return true;
+    }
+
 }
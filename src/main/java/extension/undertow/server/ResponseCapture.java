@@ -0,0 +1,140 @@
+package extension.undertow.server;
+
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ConduitFactory;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.StreamSinkConduit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Keeps a copy of the response body as it is written to the connection, up to a limit. Bodies that
+// grow past the limit, are sent from a file or are cut short are marked as not captured.
+final class ResponseCapture implements ConduitWrapper<StreamSinkConduit> {
+
+    private final int limit;
+    private byte[] buffer = new byte[512];
+    private int size;
+    private boolean overflowed;
+    private boolean terminated;
+    private boolean wrapped;
+
+    ResponseCapture(final int limit) {
+        this.limit = limit;
+    }
+
+    boolean isComplete() {
+        return wrapped && terminated && !overflowed;
+    }
+
+    byte[] body() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+        wrapped = true;
+        return new CapturingConduit(factory.create());
+    }
+
+    private void capture(final ByteBuffer source, final int from, final int to) {
+        if (overflowed || to <= from) return;
+        final int length = to - from;
+        if (size + length > limit) {
+            overflowed = true;
+            buffer = null;
+            return;
+        }
+        if (size + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.min(limit, Math.max(buffer.length * 2, size + length)));
+        }
+        final ByteBuffer copy = source.duplicate();
+        copy.limit(to).position(from);
+        copy.get(buffer, size, length);
+        size += length;
+    }
+
+    private final class CapturingConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
+
+        private CapturingConduit(final StreamSinkConduit next) {
+            super(next);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final int start = src.position();
+            final int written = next.write(src);
+            capture(src, start, src.position());
+            return written;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            final int[] starts = positions(srcs, offset, length);
+            final long written = next.write(srcs, offset, length);
+            for (int i = 0; i < length; i++) {
+                capture(srcs[offset + i], starts[i], srcs[offset + i].position());
+            }
+            return written;
+        }
+
+        @Override
+        public int writeFinal(final ByteBuffer src) throws IOException {
+            final int start = src.position();
+            final int written = next.writeFinal(src);
+            capture(src, start, src.position());
+            if (!src.hasRemaining()) terminated = true;
+            return written;
+        }
+
+        @Override
+        public long writeFinal(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            final int[] starts = positions(srcs, offset, length);
+            final long written = next.writeFinal(srcs, offset, length);
+            boolean remaining = false;
+            for (int i = 0; i < length; i++) {
+                capture(srcs[offset + i], starts[i], srcs[offset + i].position());
+                remaining |= srcs[offset + i].hasRemaining();
+            }
+            if (!remaining) terminated = true;
+            return written;
+        }
+
+        @Override
+        public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+            overflowed = true;
+            return next.transferFrom(src, position, count);
+        }
+
+        @Override
+        public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+            overflowed = true;
+            return next.transferFrom(source, count, throughBuffer);
+        }
+
+        @Override
+        public void terminateWrites() throws IOException {
+            terminated = true;
+            next.terminateWrites();
+        }
+
+        @Override
+        public void truncateWrites() throws IOException {
+            overflowed = true;
+            next.truncateWrites();
+        }
+
+        private int[] positions(final ByteBuffer[] srcs, final int offset, final int length) {
+            final int[] starts = new int[length];
+            for (int i = 0; i < length; i++) {
+                starts[i] = srcs[offset + i].position();
+            }
+            return starts;
+        }
+    }
+
+}
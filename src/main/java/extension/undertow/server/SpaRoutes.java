@@ -0,0 +1,136 @@
+package extension.undertow.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The set of paths a single page app knows about, compiled into a trie of path segments. A segment
+// is a literal, '{name}' for any single non-empty segment or '**' as the last segment for whatever
+// follows, including nothing. Literal children are kept in small open addressing tables that are
+// probed with a hash over the segment inside the path, so matching walks the path once and never
+// creates substrings. Literals win over '{name}', which wins over '**'. A trailing slash is ignored.
+public final class SpaRoutes {
+
+    public static SpaRoutes compileRoutes(final String... patterns) {
+        return compileRoutes(List.of(patterns));
+    }
+    public static SpaRoutes compileRoutes(final Collection<String> patterns) {
+        final var root = new Node();
+        for (final String pattern : patterns) {
+            if (!pattern.startsWith("/")) throw new IllegalArgumentException("Route must start with a '/': " + pattern);
+            Node node = root;
+            final String[] segments = trimSlash(pattern).substring(1).split("/", -1);
+            for (int i = 0; i < segments.length; i++) {
+                final String segment = segments[i];
+                if (segment.isEmpty() && segments.length == 1) break;
+                if (segment.equals("**")) {
+                    if (i != segments.length - 1) throw new IllegalArgumentException("'**' must be the last segment: " + pattern);
+                    node.tail = true;
+                    node = null;
+                    break;
+                }
+                if (segment.startsWith("{") && segment.endsWith("}")) {
+                    if (node.parameter == null) node.parameter = new Node();
+                    node = node.parameter;
+                } else {
+                    node = node.literals.computeIfAbsent(segment, key -> new Node());
+                }
+            }
+            if (node != null) node.terminal = true;
+        }
+        return new SpaRoutes(root);
+    }
+
+    private static final class Node {
+        private final Map<String, Node> literals = new LinkedHashMap<>();
+        private Node parameter;
+        private boolean tail;
+        private boolean terminal;
+        private int index;
+    }
+
+    // One entry per node, literal tables have a power of two size and at most half full
+    private final String[][] keys;
+    private final int[][] children;
+    private final int[] parameters;
+    private final boolean[] tails;
+    private final boolean[] terminals;
+
+    private SpaRoutes(final Node root) {
+        final List<Node> nodes = new ArrayList<>();
+        number(root, nodes);
+        this.keys = new String[nodes.size()][];
+        this.children = new int[nodes.size()][];
+        this.parameters = new int[nodes.size()];
+        this.tails = new boolean[nodes.size()];
+        this.terminals = new boolean[nodes.size()];
+        for (final Node node : nodes) {
+            final int size = Integer.highestOneBit(Math.max(1, node.literals.size()) * 2 - 1) * 2;
+            keys[node.index] = new String[size];
+            children[node.index] = new int[size];
+            for (final var literal : node.literals.entrySet()) {
+                int slot = spread(literal.getKey().hashCode()) & (size - 1);
+                while (keys[node.index][slot] != null) slot = (slot + 1) & (size - 1);
+                keys[node.index][slot] = literal.getKey();
+                children[node.index][slot] = literal.getValue().index;
+            }
+            parameters[node.index] = node.parameter == null ? -1 : node.parameter.index;
+            tails[node.index] = node.tail;
+            terminals[node.index] = node.terminal;
+        }
+    }
+
+    private static void number(final Node node, final List<Node> nodes) {
+        node.index = nodes.size();
+        nodes.add(node);
+        for (final Node child : node.literals.values()) number(child, nodes);
+        if (node.parameter != null) number(node.parameter, nodes);
+    }
+
+    public boolean matches(final String path) {
+        if (path == null || path.isEmpty() || path.charAt(0) != '/') return false;
+        int length = path.length();
+        if (length > 1 && path.charAt(length - 1) == '/') length--;
+        return matches(0, path, 1, length);
+    }
+
+    private boolean matches(final int node, final String path, final int start, final int length) {
+        if (start >= length) return terminals[node] || tails[node];
+
+        int end = path.indexOf('/', start);
+        if (end == -1 || end > length) end = length;
+        final int next = end + 1;
+
+        final int literal = findLiteral(node, path, start, end);
+        if (literal != -1 && matches(literal, path, next, length)) return true;
+        if (parameters[node] != -1 && end > start && matches(parameters[node], path, next, length)) return true;
+        return tails[node];
+    }
+
+    private int findLiteral(final int node, final String path, final int start, final int end) {
+        final String[] table = keys[node];
+        final int mask = table.length - 1;
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + path.charAt(i);
+        }
+        final int segmentLength = end - start;
+        for (int slot = spread(hash) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            final String key = table[slot];
+            if (key.length() == segmentLength && path.regionMatches(start, key, 0, segmentLength))
+                return children[node][slot];
+        }
+        return -1;
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String trimSlash(final String pattern) {
+        return pattern.length() > 1 && pattern.endsWith("/") ? pattern.substring(0, pattern.length() - 1) : pattern;
+    }
+
+}
@@ -0,0 +1,121 @@
+package extension.undertow.server;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import org.xnio.IoUtils;
+import org.xnio.channels.Channels;
+import org.xnio.channels.StreamSinkChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// Writes a body made of many elements, one element at a time. The elements are encoded straight
+// into a buffer from the connection's pool, a full buffer is written and reused, so the heap used
+// does not depend on the number of elements. The source is usually a database cursor, so the
+// writing happens on a worker thread. The source is closed when the body is done, when it fails
+// and when the client goes away. When the source or the encoder throws halfway, the connection is
+// closed so the client sees an aborted transfer and not a short but well-formed body.
+final class StreamingBody<T> implements HttpHandler {
+
+    interface ElementEncoder<T> {
+        void encode(T element, StringBuilder out);
+    }
+
+    private final Iterator<T> elements;
+    private final AutoCloseable source;
+    private final String open;
+    private final String separator;
+    private final String close;
+    private final ElementEncoder<T> encoder;
+
+    StreamingBody(final Iterator<T> elements, final AutoCloseable source, final String open, final String separator
+            , final String close, final ElementEncoder<T> encoder) {
+        this.elements = elements;
+        this.source = source;
+        this.open = open;
+        this.separator = separator;
+        this.close = close;
+        this.encoder = encoder;
+    }
+
+    void send(final HttpServerExchange exchange) {
+        if (exchange.isInIoThread()) exchange.dispatch(this);
+        else write(exchange);
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) {
+        write(exchange);
+    }
+
+    private void write(final HttpServerExchange exchange) {
+        final StreamSinkChannel channel = exchange.getResponseChannel();
+        final CharsetEncoder charset = UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final var text = new StringBuilder(256);
+        try (final PooledByteBuffer pooled = exchange.getConnection().getByteBufferPool().allocate()) {
+            final ByteBuffer buffer = pooled.getBuffer();
+            buffer.clear();
+            text.append(open);
+            boolean first = true;
+            while (elements.hasNext()) {
+                if (!first) text.append(separator);
+                first = false;
+                encoder.encode(elements.next(), text);
+                encode(charset, text, buffer, channel);
+                text.setLength(0);
+            }
+            text.append(close);
+            encode(charset, text, buffer, channel);
+            write(buffer, channel);
+            channel.shutdownWrites();
+            Channels.flushBlocking(channel);
+        } catch (final IOException e) {
+            // The client went away, there is nobody left to tell
+            IoUtils.safeClose(exchange.getConnection());
+            return;
+        } catch (final RuntimeException e) {
+            // The status and part of the body are out, closing the connection is the only way left to
+            // tell the client the body is incomplete. Ending the exchange would send a clean last chunk.
+            IoUtils.safeClose(exchange.getConnection());
+            throw e;
+        } finally {
+            closeSource();
+        }
+        exchange.endExchange();
+    }
+
+    private static void encode(final CharsetEncoder charset, final CharSequence text, final ByteBuffer buffer
+            , final StreamSinkChannel channel) throws IOException {
+        final CharBuffer chars = CharBuffer.wrap(text);
+        charset.reset();
+        while (charset.encode(chars, buffer, true) == CoderResult.OVERFLOW) {
+            write(buffer, channel);
+        }
+    }
+
+    private static void write(final ByteBuffer buffer, final StreamSinkChannel channel) throws IOException {
+        buffer.flip();
+        Channels.writeBlocking(channel, buffer);
+        buffer.clear();
+    }
+
+    private void closeSource() {
+        if (source == null) return;
+        try {
+            source.close();
+        } catch (final Exception e) {
+            // Nothing sensible to do, the response is already decided
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package extension.undertow.server;
+
+import extension.undertow.error.InvalidInput;
+import extension.undertow.model.Checked;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static common.error.ErrorCodes.invalid_email_address;
+import static extension.undertow.model.Checked.invalid;
+import static extension.undertow.model.Checked.valid;
+import static extension.undertow.server.Validator.*;
+import static io.undertow.util.StatusCodes.BAD_REQUEST;
+
+// A chain of checks for one string value, built once and reused for every request. The rules run in
+// the order they were added and the first one that fails decides the message. Only regex() uses a
+// regular expression, the other rules are plain loops over the characters. A null value fails the
+// first rule.
+//
+//     private static final ValidationRules USERNAME = newValidationRules()
+//         .notEmpty("Username is required")
+//         .length(3, 32, "Username must be 3 to 32 characters")
+//         .alpha("Username may only contain letters")
+//         .build();
+//
+//     final String username = USERNAME.require(getMandatoryString(form, "username"));
+public final class ValidationRules {
+
+    private enum Kind { NOT_EMPTY, LENGTH, RANGE, REGEX, IN_SET, EMAIL, ALPHA, NUMERIC }
+
+    private record Rule(Kind kind, long minimum, long maximum, Pattern pattern, Set<String> values, int errorCode, String message) {}
+
+    public static Builder newValidationRules() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private final List<Rule> rules = new ArrayList<>();
+
+        private Builder() {}
+
+        public Builder notEmpty(final String message) {
+            return add(Kind.NOT_EMPTY, 0, 0, null, null, message);
+        }
+        public Builder length(final int minimum, final int maximum, final String message) {
+            return add(Kind.LENGTH, minimum, maximum, null, null, message);
+        }
+        // The value has to be a whole number within the range
+        public Builder range(final long minimum, final long maximum, final String message) {
+            return add(Kind.RANGE, minimum, maximum, null, null, message);
+        }
+        public Builder regex(final String pattern, final String message) {
+            return add(Kind.REGEX, 0, 0, Pattern.compile(pattern), null, message);
+        }
+        public Builder regex(final Pattern pattern, final String message) {
+            return add(Kind.REGEX, 0, 0, pattern, null, message);
+        }
+        public Builder inSet(final Set<String> values, final String message) {
+            return add(Kind.IN_SET, 0, 0, null, Set.copyOf(values), message);
+        }
+        public Builder email(final String message) {
+            rules.add(new Rule(Kind.EMAIL, 0, 0, null, null, invalid_email_address, message));
+            return this;
+        }
+        public Builder alpha(final String message) {
+            return add(Kind.ALPHA, 0, 0, null, null, message);
+        }
+        public Builder numeric(final String message) {
+            return add(Kind.NUMERIC, 0, 0, null, null, message);
+        }
+        public ValidationRules build() {
+            return new ValidationRules(rules.toArray(new Rule[0]));
+        }
+
+        private Builder add(final Kind kind, final long minimum, final long maximum, final Pattern pattern
+                , final Set<String> values, final String message) {
+            rules.add(new Rule(kind, minimum, maximum, pattern, values, BAD_REQUEST, message));
+            return this;
+        }
+    }
+
+    private final Rule[] rules;
+
+    private ValidationRules(final Rule[] rules) {
+        this.rules = rules;
+    }
+
+    public String require(final String value) throws InvalidInput {
+        final Rule failed = firstFailure(value);
+        if (failed != null) throw new InvalidInput(failed.errorCode, failed.message);
+        return value;
+    }
+
+    public Checked<String> check(final String value) {
+        final Rule failed = firstFailure(value);
+        return failed == null ? valid(value) : invalid(failed.errorCode, failed.message);
+    }
+
+    public boolean isValid(final String value) {
+        return firstFailure(value) == null;
+    }
+
+    private Rule firstFailure(final String value) {
+        for (final Rule rule : rules) {
+            if (value == null || !passes(rule, value)) return rule;
+        }
+        return null;
+    }
+
+    private static boolean passes(final Rule rule, final String value) {
+        return switch (rule.kind) {
+            case NOT_EMPTY -> !value.isEmpty();
+            case LENGTH -> value.length() >= rule.minimum && value.length() <= rule.maximum;
+            case RANGE -> scanLong(value, rule.minimum, rule.maximum) != null;
+            case REGEX -> rule.pattern.matcher(value).matches();
+            case IN_SET -> rule.values.contains(value);
+            case EMAIL -> isEmailAddress(value);
+            case ALPHA -> isAlpha(value);
+            case NUMERIC -> isNumeric(value);
+        };
+    }
+
+}
@@ -2,16 +2,20 @@ package extension.undertow.server;
 
 import common.error.InvalidInput;
 import common.error.NotFound;
+import extension.undertow.model.Checked;
 
 import java.io.File;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import static common.error.ErrorCodes.*;
 import static common.util.Security.calculateHaystackSize;
+import static extension.undertow.model.Checked.invalid;
+import static extension.undertow.model.Checked.valid;
 import static java.lang.String.format;
 import static java.lang.System.currentTimeMillis;
 
@@ -45,20 +49,50 @@ public enum Validator {;
         return array;
     }
 
-    private static final Pattern valid_email = Pattern.compile("[a-z0-9\\-_+\\.]+@[a-z0-9-\\.]+");
     public static String requireEmailAddress(final String email, final String message) throws InvalidInput {
-        if (email == null || !valid_email.matcher(email).matches())
-            throw new InvalidInput(invalid_email_address, message);
+        if (!isEmailAddress(email)) throw new InvalidInput(invalid_email_address, message);
         return email;
     }
 
+    // Accepts the same addresses as the pattern [a-z0-9\-_+.]+@[a-z0-9-.]+ without running a regex
+    public static boolean isEmailAddress(final String email) {
+        if (email == null) return false;
+        final int at = email.indexOf('@');
+        if (at < 1 || at == email.length() - 1) return false;
+        for (int i = 0; i < at; i++) {
+            final char c = email.charAt(i);
+            if (!isLowerAlphaNumeric(c) && c != '-' && c != '_' && c != '+' && c != '.') return false;
+        }
+        for (int i = at + 1; i < email.length(); i++) {
+            final char c = email.charAt(i);
+            if (!isLowerAlphaNumeric(c) && c != '-' && c != '.') return false;
+        }
+        return true;
+    }
+    private static boolean isLowerAlphaNumeric(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+    }
+
     public static <T> T requireMatch(final Pattern pattern, final T value, final String message) throws InvalidInput {
         if (value == null || !pattern.matcher(value.toString()).matches()) throw new InvalidInput(message);
         return value;
     }
 
     public static <T> T requireMatch(final String pattern, final T value, final String message) throws InvalidInput {
-        return requireMatch(Pattern.compile(pattern), value, message);
+        return requireMatch(toPattern(pattern), value, message);
+    }
+
+    // Patterns passed as strings are compiled once and kept. The cache is bounded in case a caller
+    // builds patterns from input, once full it starts over.
+    private static final int PATTERN_CACHE_SIZE = 256;
+    private static final Map<String, Pattern> PATTERNS = new ConcurrentHashMap<>();
+    static Pattern toPattern(final String pattern) {
+        final Pattern cached = PATTERNS.get(pattern);
+        if (cached != null) return cached;
+        final Pattern compiled = Pattern.compile(pattern);
+        if (PATTERNS.size() >= PATTERN_CACHE_SIZE) PATTERNS.clear();
+        PATTERNS.put(pattern, compiled);
+        return compiled;
     }
 
     public static <T> T requireInSet(final Set<?> set, final T value, final String message) throws InvalidInput {
@@ -83,12 +117,57 @@ public enum Validator {;
     }
 
     public static int requirePortNumber(final String port, final String message) throws InvalidInput {
-        if (port == null || port.isEmpty()) throw new InvalidInput(message);
-        try {
-            return Integer.parseInt(port);
-        } catch (final Exception e) {
-            throw new InvalidInput(message);
+        final Long number = scanLong(port, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (number == null) throw new InvalidInput(message);
+        return number.intValue();
+    }
+
+    // The check variants return the problem instead of throwing it, see Checked
+    public static <T> Checked<T> checkTrue(final boolean valid, final T value, final String message) {
+        return valid ? valid(value) : invalid(message);
+    }
+    public static Checked<String> checkAlpha(final String input, final String message) {
+        return input != null && isAlpha(input) ? valid(input) : invalid(message);
+    }
+    public static <T> Checked<T> checkNotNull(final T input, final String message) {
+        return input != null ? valid(input) : invalid(message);
+    }
+    public static Checked<String> checkNotEmpty(final String input, final String message) {
+        return input != null && !input.isEmpty() ? valid(input) : invalid(message);
+    }
+    public static Checked<String> checkEmailAddress(final String email, final String message) {
+        return isEmailAddress(email) ? valid(email) : invalid(invalid_email_address, message);
+    }
+    public static <T> Checked<T> checkMatch(final Pattern pattern, final T value, final String message) {
+        return value != null && pattern.matcher(value.toString()).matches() ? valid(value) : invalid(message);
+    }
+    public static <T> Checked<T> checkInSet(final Set<?> set, final T value, final String message) {
+        return set.contains(value) ? valid(value) : invalid(message);
+    }
+    public static Checked<Integer> checkPortNumber(final String port, final String message) {
+        final Long number = scanLong(port, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        return number != null ? valid(number.intValue()) : invalid(message);
+    }
+
+    // Same rules as Long.parseLong, but an invalid or out of range value gives null instead of an
+    // exception. Returns a boxed value so the caller can tell the two apart without a second pass.
+    static Long scanLong(final String value, final long minimum, final long maximum) {
+        if (value == null || value.isEmpty()) return null;
+        final boolean negative = value.charAt(0) == '-';
+        int position = negative || value.charAt(0) == '+' ? 1 : 0;
+        if (position == value.length()) return null;
+
+        // Accumulate negatively, Long.MIN_VALUE has no positive counterpart
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (; position < value.length(); position++) {
+            final int digit = value.charAt(position) - '0';
+            if (digit < 0 || digit > 9) return null;
+            if (result < (limit + digit) / 10) return null;
+            result = result * 10 - digit;
         }
+        final long number = negative ? result : -result;
+        return number < minimum || number > maximum ? null : number;
     }
 
     public static boolean isNullOrEmpty(final String string) {
@@ -155,13 +234,25 @@ public enum Validator {;
         throw new NotFound();
     }
 
-    private static final Pattern NUMERIC = Pattern.compile("-?[0-9]+");
-    private static final Pattern ALPHA = Pattern.compile("[a-zA-Z]+");
+    // Same as matching -?[0-9]+
     public static boolean isNumeric(final String input) {
-        return NUMERIC.matcher(input).matches();
+        if (input == null) return false;
+        final int start = !input.isEmpty() && input.charAt(0) == '-' ? 1 : 0;
+        if (start == input.length()) return false;
+        for (int i = start; i < input.length(); i++) {
+            final char c = input.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
     }
+    // Same as matching [a-zA-Z]+
     public static boolean isAlpha(final String input) {
-        return ALPHA.matcher(input).matches();
+        if (input == null || input.isEmpty()) return false;
+        for (int i = 0; i < input.length(); i++) {
+            final char c = input.charAt(i);
+            if ((c < 'a' || c > 'z') && (c < 'A' || c > 'Z')) return false;
+        }
+        return true;
     }
 
     public static boolean areNull(final Object... values) {
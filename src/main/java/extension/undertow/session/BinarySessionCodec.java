@@ -0,0 +1,428 @@
+package extension.undertow.session;
+
+import extension.undertow.error.InvalidInput;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static extension.undertow.error.InvalidInput.INVALID_SESSION;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// The session as a version byte, a 32 bit fingerprint of the schema and then the field values, no
+// names. Numbers are zigzag varints, strings are a length and UTF-8. A typical session is a third of
+// its JSON size before base64, and decoding is a single pass without any text parsing.
+//
+// The schema is read from the session class: the components of a record, or the instance fields of
+// a class sorted by name, superclass first. A class is created with its constructor without
+// arguments, which may be private, and then gets its fields set. Without one, a constructor whose
+// parameters are named like the fields and cover all of them is called instead, as an SWT subclass
+// usually has for renew(). Parameter names are only known when the class is compiled with
+// -parameters. A class that has neither fails at the first use, SessionCodec.binary(type) checks
+// it when the store is set up.
+//
+// Supported are primitives and their wrappers, String, enums, byte[] and collections of String.
+// Changing the fields or enum constants changes the fingerprint, so a token made with the old schema
+// is rejected as an invalid session. A fingerprint can still collide, about one old token in four
+// billion would be misread.
+final class BinarySessionCodec implements SessionCodec {
+
+    static final byte VERSION = 0x01;
+
+    private static final Map<Class<?>, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+    // The schema comes from the declared type, the one decode uses, so an instance of a subclass is
+    // written with the fields of the session class only
+    @Override
+    public <T> byte[] encode(final T session, final Class<T> type) {
+        final Schema schema = schema(type);
+        final var out = new Writer();
+        out.writeByte(VERSION);
+        out.writeFixed(schema.fingerprint, 4);
+        try {
+            for (final Property property : schema.properties) {
+                write(out, property, property.get(session));
+            }
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not read " + type.getName(), e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(final byte[] data, final Class<T> type) throws InvalidInput {
+        final Schema schema = schema(type);
+        final var in = new Reader(data);
+        if (in.readByte() != VERSION) throw INVALID_SESSION;
+        if ((int) in.readFixed(4) != schema.fingerprint) throw INVALID_SESSION;
+        final Object[] values = new Object[schema.properties.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = read(in, schema.properties[i]);
+        }
+        if (in.position != data.length) throw INVALID_SESSION;
+        try {
+            return type.cast(schema.create(values));
+        } catch (final ReflectiveOperationException e) {
+            throw new InvalidInput("Could not create " + type.getSimpleName(), e);
+        }
+    }
+
+    private static void write(final Writer out, final Property property, final Object value) {
+        final Class<?> type = property.type;
+        if (type.isPrimitive()) {
+            writeValue(out, type, value);
+        } else if (type == String.class) {
+            out.writeString((String) value);
+        } else if (type == byte[].class) {
+            out.writeBytes((byte[]) value);
+        } else if (type.isEnum()) {
+            out.writeVarint(value == null ? 0 : ((Enum<?>) value).ordinal() + 1);
+        } else if (Collection.class.isAssignableFrom(type)) {
+            final var strings = (Collection<?>) value;
+            out.writeVarint(strings == null ? 0 : strings.size() + 1L);
+            if (strings != null) for (final Object s : strings) out.writeString((String) s);
+        } else {
+            // A wrapper, a presence byte and then the primitive
+            out.writeByte(value == null ? 0 : 1);
+            if (value != null) writeValue(out, property.primitive, value);
+        }
+    }
+
+    private static void writeValue(final Writer out, final Class<?> type, final Object value) {
+        if (type == boolean.class) out.writeByte((Boolean) value ? 1 : 0);
+        else if (type == byte.class) out.writeByte((Byte) value);
+        else if (type == short.class) out.writeVarint(zigzag((Short) value));
+        else if (type == char.class) out.writeVarint((Character) value);
+        else if (type == int.class) out.writeVarint(zigzag((Integer) value));
+        else if (type == long.class) out.writeVarint(zigzag((Long) value));
+        else if (type == float.class) out.writeFixed(Float.floatToIntBits((Float) value), 4);
+        else out.writeFixed(Double.doubleToLongBits((Double) value), 8);
+    }
+
+    private static Object read(final Reader in, final Property property) throws InvalidInput {
+        final Class<?> type = property.type;
+        if (type.isPrimitive()) return readValue(in, type);
+        if (type == String.class) return in.readString();
+        if (type == byte[].class) return in.readBytes();
+        if (type.isEnum()) {
+            final long ordinal = in.readVarint();
+            if (ordinal == 0) return null;
+            final Object[] constants = type.getEnumConstants();
+            if (ordinal > constants.length) throw INVALID_SESSION;
+            return constants[(int) ordinal - 1];
+        }
+        if (Collection.class.isAssignableFrom(type)) {
+            final long count = in.readVarint();
+            if (count == 0) return null;
+            // Every string takes at least one byte, so this bounds the allocation
+            if (count - 1 > in.remaining()) throw INVALID_SESSION;
+            final Collection<String> strings = Set.class.isAssignableFrom(type)
+                ? new LinkedHashSet<>() : new ArrayList<>((int) count - 1);
+            for (long i = 1; i < count; i++) strings.add(in.readString());
+            return strings;
+        }
+        final int present = in.readByte();
+        if (present == 0) return null;
+        if (present != 1) throw INVALID_SESSION;
+        return readValue(in, property.primitive);
+    }
+
+    private static Object readValue(final Reader in, final Class<?> type) throws InvalidInput {
+        if (type == boolean.class) {
+            final int value = in.readByte();
+            if (value > 1) throw INVALID_SESSION;
+            return value == 1;
+        }
+        if (type == byte.class) return (byte) in.readByte();
+        if (type == short.class) return (short) unzigzag(in.readVarint());
+        if (type == char.class) return (char) in.readVarint();
+        if (type == int.class) return (int) unzigzag(in.readVarint());
+        if (type == long.class) return unzigzag(in.readVarint());
+        if (type == float.class) return Float.intBitsToFloat((int) in.readFixed(4));
+        return Double.longBitsToDouble(in.readFixed(8));
+    }
+
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    private static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        private byte[] buffer = new byte[128];
+        private int length;
+
+        private void writeByte(final int value) {
+            if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            buffer[length++] = (byte) value;
+        }
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+        private void writeFixed(final long value, final int bytes) {
+            for (int i = bytes - 1; i >= 0; i--) writeByte((int) (value >>> (i * 8)));
+        }
+        private void writeString(final String value) {
+            writeBytes(value == null ? null : value.getBytes(UTF_8));
+        }
+        private void writeBytes(final byte[] value) {
+            writeVarint(value == null ? 0 : value.length + 1L);
+            if (value == null) return;
+            if (length + value.length > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + value.length));
+            System.arraycopy(value, 0, buffer, length, value.length);
+            length += value.length;
+        }
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+
+    // Reads from a token that passed the MAC check, but still never trusts a length
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        private Reader(final byte[] data) {
+            this.data = data;
+        }
+
+        private int remaining() {
+            return data.length - position;
+        }
+        private int readByte() throws InvalidInput {
+            if (position == data.length) throw INVALID_SESSION;
+            return data[position++] & 0xFF;
+        }
+        private long readVarint() throws InvalidInput {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw INVALID_SESSION;
+        }
+        private long readFixed(final int bytes) throws InvalidInput {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) value = (value << 8) | readByte();
+            return value;
+        }
+        private byte[] readBytes() throws InvalidInput {
+            final long length = readVarint();
+            if (length == 0) return null;
+            if (length - 1 > remaining()) throw INVALID_SESSION;
+            final byte[] value = Arrays.copyOfRange(data, position, position + (int) length - 1);
+            position += value.length;
+            return value;
+        }
+        private String readString() throws InvalidInput {
+            final long length = readVarint();
+            if (length == 0) return null;
+            if (length - 1 > remaining()) throw INVALID_SESSION;
+            final String value = new String(data, position, (int) length - 1, UTF_8);
+            position += (int) length - 1;
+            return value;
+        }
+    }
+
+    private static final class Property {
+        private final String name;
+        private final Class<?> type;
+        private final Class<?> primitive;
+        private final Method accessor;
+        private final Field field;
+
+        private Property(final String name, final Class<?> type, final Type genericType, final Method accessor, final Field field) {
+            this.name = name;
+            this.type = type;
+            this.primitive = primitiveOf(type);
+            this.accessor = accessor;
+            this.field = field;
+            if (!isSupported(type, genericType))
+                throw new IllegalArgumentException("Session field " + name + " has an unsupported type " + genericType.getTypeName());
+        }
+
+        private Object get(final Object session) throws ReflectiveOperationException {
+            return accessor != null ? accessor.invoke(session) : field.get(session);
+        }
+
+        private String describe() {
+            final var description = new StringBuilder(name).append(':').append(type.getName());
+            if (type.isEnum()) {
+                for (final Object constant : type.getEnumConstants()) description.append(',').append(((Enum<?>) constant).name());
+            }
+            return description.toString();
+        }
+
+        private static boolean isSupported(final Class<?> type, final Type genericType) {
+            if (type.isPrimitive() || type == String.class || type == byte[].class || type.isEnum()) return true;
+            if (primitiveOf(type) != null) return true;
+            if (type == List.class || type == Set.class || type == Collection.class) {
+                return genericType instanceof ParameterizedType parameterized
+                    && parameterized.getActualTypeArguments()[0] == String.class;
+            }
+            return false;
+        }
+
+        private static Class<?> primitiveOf(final Class<?> type) {
+            if (type == Boolean.class) return boolean.class;
+            if (type == Byte.class) return byte.class;
+            if (type == Short.class) return short.class;
+            if (type == Character.class) return char.class;
+            if (type == Integer.class) return int.class;
+            if (type == Long.class) return long.class;
+            if (type == Float.class) return float.class;
+            if (type == Double.class) return double.class;
+            return null;
+        }
+    }
+
+    private static final class Schema {
+        private final Constructor<?> constructor;
+        private final Property[] properties;
+        // The property for every constructor parameter, null when the fields are set after creation
+        private final int[] parameters;
+        private final int fingerprint;
+
+        private Schema(final Class<?> type) {
+            final List<Property> properties = new ArrayList<>();
+            if (type.isRecord()) {
+                final RecordComponent[] components = type.getRecordComponents();
+                final Class<?>[] parameterTypes = new Class<?>[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    final Method accessor = components[i].getAccessor();
+                    accessor.setAccessible(true);
+                    parameterTypes[i] = components[i].getType();
+                    properties.add(new Property(components[i].getName(), components[i].getType()
+                        , components[i].getGenericType(), accessor, null));
+                }
+                try {
+                    this.constructor = type.getDeclaredConstructor(parameterTypes);
+                } catch (final NoSuchMethodException e) {
+                    throw new IllegalArgumentException("Session class " + type.getName() + " has no canonical constructor", e);
+                }
+                this.parameters = new int[components.length];
+                for (int i = 0; i < parameters.length; i++) parameters[i] = i;
+            } else {
+                final List<Class<?>> hierarchy = new ArrayList<>();
+                for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) hierarchy.add(0, c);
+                for (final Class<?> c : hierarchy) {
+                    final Field[] fields = c.getDeclaredFields();
+                    Arrays.sort(fields, Comparator.comparing(Field::getName));
+                    for (final Field field : fields) {
+                        final int modifiers = field.getModifiers();
+                        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) continue;
+                        field.setAccessible(true);
+                        properties.add(new Property(field.getName(), field.getType(), field.getGenericType(), null, field));
+                    }
+                }
+                final Constructor<?> noArguments = noArgumentConstructor(type);
+                if (noArguments != null) {
+                    this.constructor = noArguments;
+                    this.parameters = null;
+                } else {
+                    this.constructor = namedConstructor(type, properties);
+                    this.parameters = parameterOrder(constructor, properties);
+                }
+            }
+            constructor.setAccessible(true);
+            this.properties = properties.toArray(new Property[0]);
+            this.fingerprint = fingerprint(this.properties);
+        }
+
+        private static Constructor<?> noArgumentConstructor(final Class<?> type) {
+            try {
+                return type.getDeclaredConstructor();
+            } catch (final NoSuchMethodException e) {
+                return null;
+            }
+        }
+
+        private static Constructor<?> namedConstructor(final Class<?> type, final List<Property> properties) {
+            for (final Constructor<?> candidate : type.getDeclaredConstructors()) {
+                if (parameterOrder(candidate, properties) != null) return candidate;
+            }
+            throw new IllegalArgumentException("Session class " + type.getName() + " needs a constructor without"
+                + " arguments, or one with a parameter of the same name and type for every field"
+                + " (compile with -parameters)");
+        }
+
+        private static int[] parameterOrder(final Constructor<?> constructor, final List<Property> properties) {
+            final Parameter[] parameters = constructor.getParameters();
+            if (parameters.length != properties.size()) return null;
+            final int[] order = new int[parameters.length];
+            final boolean[] used = new boolean[properties.size()];
+            for (int i = 0; i < parameters.length; i++) {
+                if (!parameters[i].isNamePresent()) return null;
+                order[i] = -1;
+                for (int j = 0; j < properties.size(); j++) {
+                    final Property property = properties.get(j);
+                    if (!used[j] && property.name.equals(parameters[i].getName()) && property.type == parameters[i].getType()) {
+                        order[i] = j;
+                        used[j] = true;
+                        break;
+                    }
+                }
+                if (order[i] == -1) return null;
+            }
+            return order;
+        }
+
+        private static int fingerprint(final Property[] properties) {
+            final var schema = new StringBuilder();
+            for (final Property property : properties) schema.append(property.describe()).append(';');
+            try {
+                final byte[] hash = MessageDigest.getInstance("SHA-256").digest(schema.toString().getBytes(UTF_8));
+                return (hash[0] & 0xFF) << 24 | (hash[1] & 0xFF) << 16 | (hash[2] & 0xFF) << 8 | (hash[3] & 0xFF);
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+
+        private Object create(final Object[] values) throws ReflectiveOperationException {
+            if (parameters != null) {
+                final Object[] arguments = new Object[parameters.length];
+                for (int i = 0; i < parameters.length; i++) arguments[i] = values[parameters[i]];
+                return constructor.newInstance(arguments);
+            }
+            final Object instance = constructor.newInstance();
+            for (int i = 0; i < properties.length; i++) {
+                properties[i].field.set(instance, values[i]);
+            }
+            return instance;
+        }
+    }
+
+    private static Schema schema(final Class<?> type) {
+        return SCHEMAS.computeIfAbsent(type, Schema::new);
+    }
+
+    // Reads the schema now, so an unsupported class fails when the store is set up
+    static SessionCodec forClass(final Class<?> type) {
+        schema(type);
+        return SessionCodec.BINARY;
+    }
+
+}
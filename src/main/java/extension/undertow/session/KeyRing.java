@@ -0,0 +1,189 @@
+package extension.undertow.session;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// The HMAC keys of a TokenSessionStore. New tokens are signed with the current key and carry its id,
+// tokens signed with an older key still verify as long as that key is in the ring. Rotating is adding
+// a new current key and keeping the old one for verification until the longest session has expired,
+// nobody gets logged out.
+//
+// Every key gets one Mac per thread, set up once, so signing and verifying only hash the data. MACs
+// are compared in constant time. The MAC can be truncated to make the cookie smaller, 16 bytes is
+// still far out of reach of guessing. Full length MACs keep verifying after truncation is turned on.
+//
+// Building a ring sets up its Macs and thread locals, build it once and keep it. A store that builds
+// a new ring in getSessionKeyRing() pays that on every request and never reuses a Mac:
+//
+//     private final KeyRing keys = newKeyRing()
+//         .current("2024b", System.getenv("SESSION_KEY_2024B"))
+//         .verifyOnly("2024a", System.getenv("SESSION_KEY_2024A"))
+//         .build();
+//
+//     public KeyRing getSessionKeyRing() {
+//         return keys;
+//     }
+public final class KeyRing {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String DEFAULT_KEY_ID = "0";
+    private static final int FULL_MAC_LENGTH = 32;
+    private static final int MIN_MAC_LENGTH = 16;
+
+    public static Builder newKeyRing() {
+        return new Builder();
+    }
+
+    // The ring used when a store only has getSessionValidationKey(). The default method on the interface
+    // has no field to keep it in, so it is kept per store, weakly, and holds one ring per store. A store
+    // that returns a different key gets a new ring, the old one is dropped with the old key.
+    private record SingleKey(byte[] secret, KeyRing ring) {}
+    private static final Map<Object, SingleKey> SINGLE_KEY_RINGS = new WeakHashMap<>();
+    static KeyRing singleKey(final Object store, final String key) {
+        final byte[] secret = key.getBytes(UTF_8);
+        synchronized (SINGLE_KEY_RINGS) {
+            final SingleKey cached = SINGLE_KEY_RINGS.get(store);
+            if (cached != null && MessageDigest.isEqual(cached.secret, secret)) return cached.ring;
+            final KeyRing ring = newKeyRing().current(DEFAULT_KEY_ID, secret).build();
+            SINGLE_KEY_RINGS.put(store, new SingleKey(secret, ring));
+            return ring;
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, byte[]> keys = new LinkedHashMap<>();
+        private String currentId;
+        private int macLength = FULL_MAC_LENGTH;
+
+        private Builder() {}
+
+        // In bytes, 16 to 32
+        public Builder macLength(final int macLength) {
+            if (macLength < MIN_MAC_LENGTH || macLength > FULL_MAC_LENGTH)
+                throw new IllegalArgumentException("MAC length must be between " + MIN_MAC_LENGTH + " and " + FULL_MAC_LENGTH + " bytes");
+            this.macLength = macLength;
+            return this;
+        }
+
+        public Builder current(final String id, final String key) {
+            return current(id, key.getBytes(UTF_8));
+        }
+        public Builder current(final String id, final byte[] key) {
+            if (currentId != null) throw new IllegalStateException("There can only be one current key");
+            currentId = id;
+            return verifyOnly(id, key);
+        }
+        public Builder verifyOnly(final String id, final String key) {
+            return verifyOnly(id, key.getBytes(UTF_8));
+        }
+        public Builder verifyOnly(final String id, final byte[] key) {
+            if (id == null || id.isEmpty() || !isKeyId(id))
+                throw new IllegalArgumentException("Key id must be letters, digits, '-' or '_'");
+            if (key == null || key.length == 0) throw new IllegalArgumentException("Key must not be empty");
+            if (keys.putIfAbsent(id, key.clone()) != null) throw new IllegalArgumentException("Duplicate key id " + id);
+            return this;
+        }
+        public KeyRing build() {
+            if (currentId == null) throw new IllegalStateException("Missing current key");
+            return new KeyRing(this);
+        }
+
+        // The id ends up in a cookie, behind a '.'
+        private static boolean isKeyId(final String id) {
+            for (int i = 0; i < id.length(); i++) {
+                final char c = id.charAt(i);
+                if ((c < 'a' || c > 'z') && (c < 'A' || c > 'Z') && (c < '0' || c > '9') && c != '-' && c != '_')
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class Key {
+        private final String id;
+        private final ThreadLocal<Mac> macs;
+
+        private Key(final String id, final byte[] secret) {
+            this.id = id;
+            final var spec = new SecretKeySpec(secret, ALGORITHM);
+            this.macs = ThreadLocal.withInitial(() -> newMac(spec));
+            // Fails when the key can't be used, instead of on the first request
+            newMac(spec);
+        }
+
+        private byte[] mac(final String data) {
+            final Mac mac = macs.get();
+            return mac.doFinal(data.getBytes(UTF_8));
+        }
+
+        private static Mac newMac(final SecretKeySpec spec) {
+            try {
+                final Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(spec);
+                return mac;
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException("Could not initialize " + ALGORITHM, e);
+            }
+        }
+    }
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final Key current;
+    private final Map<String, Key> keys;
+    private final Key[] all;
+    private final int macLength;
+
+    private KeyRing(final Builder builder) {
+        final Map<String, Key> keys = new LinkedHashMap<>();
+        builder.keys.forEach((id, secret) -> keys.put(id, new Key(id, secret)));
+        this.keys = Map.copyOf(keys);
+        this.current = keys.get(builder.currentId);
+        this.all = keys.values().toArray(new Key[0]);
+        this.macLength = builder.macLength;
+    }
+
+    public String currentKeyId() {
+        return current.id;
+    }
+
+    public String sign(final String data) {
+        final byte[] mac = current.mac(data);
+        return ENCODER.encodeToString(macLength == FULL_MAC_LENGTH ? mac : Arrays.copyOf(mac, macLength));
+    }
+
+    // A null key id comes from a token made before tokens carried one, those are checked against
+    // every key in the ring
+    public boolean verify(final String keyId, final String data, final String mac) {
+        final byte[] expected;
+        try {
+            expected = DECODER.decode(mac);
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+        if (expected.length != macLength && expected.length != FULL_MAC_LENGTH) return false;
+        if (keyId != null) {
+            final Key key = keys.get(keyId);
+            return key != null && matches(expected, key.mac(data));
+        }
+        for (final Key key : all) {
+            if (matches(expected, key.mac(data))) return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(final byte[] expected, final byte[] mac) {
+        return MessageDigest.isEqual(expected, expected.length == mac.length ? mac : Arrays.copyOf(mac, expected.length));
+    }
+
+}
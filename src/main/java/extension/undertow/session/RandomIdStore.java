@@ -6,6 +6,7 @@ import io.undertow.server.HttpServerExchange;
 import java.io.IOException;
 import java.util.Random;
 
+import static extension.undertow.error.NotLoggedIn.NOT_LOGGED_IN;
 import static extension.undertow.session.SessionStore.getValueForCookie;
 import static io.undertow.util.Headers.SET_COOKIE;
 
@@ -38,7 +39,7 @@ public interface RandomIdStore<T> extends SessionStore<T> {
 
     default T getSession(final HttpServerExchange exchange) throws NotLoggedIn, IOException {
         final T session = getSession(exchange, null);
-        if (session == null) throw new NotLoggedIn();
+        if (session == null) throw NOT_LOGGED_IN;
         return session;
     }
 
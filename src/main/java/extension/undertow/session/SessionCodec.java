@@ -0,0 +1,23 @@
+package extension.undertow.session;
+
+import extension.undertow.error.InvalidInput;
+
+// Turns a session into the bytes inside a session token and back, see
+// TokenSessionStore.getSessionCodec(). Tokens stay readable when the codec changes: a payload that
+// starts with '{' is always read as JSON, so cookies issued before a switch keep working.
+public interface SessionCodec {
+
+    // Field values in declaration order, without names, see BinarySessionCodec
+    SessionCodec BINARY = new BinarySessionCodec();
+
+    // BINARY, after checking that it can handle the session class. Keep the result in a field:
+    //     private static final SessionCodec CODEC = SessionCodec.binary(UserSession.class);
+    static SessionCodec binary(final Class<?> sessionClass) {
+        return BinarySessionCodec.forClass(sessionClass);
+    }
+
+    // Encodes as the declared type, the same type decode is called with
+    <T> byte[] encode(T session, Class<T> type);
+    <T> T decode(byte[] data, Class<T> type) throws InvalidInput;
+
+}
@@ -5,6 +5,8 @@ import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.HttpString;
 
+import static extension.undertow.error.AccessDenied.INVALID_CSRF_TOKEN;
+import static extension.undertow.error.AccessDenied.MISSING_CSRF_TOKEN;
 import static extension.undertow.model.ContentType.application_json;
 import static extension.undertow.model.ContentType.text_plain;
 import static extension.undertow.server.ResponseBuilder.respond;
@@ -36,8 +38,8 @@ public enum SessionHandlers {;
     public static <T extends Session> UserRequestHandler<T> hasCsrfToken(final UserRequestHandler<T> next) {
         return (session, exchange) -> {
             final String requestToken = exchange.getRequestHeaders().getFirst(CSRF_TOKEN_HEADER);
-            if (requestToken == null || requestToken.isEmpty()) throw new AccessDenied("Missing CSRF Token");
-            if (!requestToken.equals(session.csrfToken())) throw new AccessDenied("Invalid CSRF Token");
+            if (requestToken == null || requestToken.isEmpty()) throw MISSING_CSRF_TOKEN;
+            if (!requestToken.equals(session.csrfToken())) throw INVALID_CSRF_TOKEN;
 
             next.handleRequest(session, exchange);
         };
@@ -6,6 +6,7 @@ import io.undertow.server.HttpServerExchange;
 
 import java.util.concurrent.TimeUnit;
 
+import static extension.undertow.error.NotLoggedIn.NOT_LOGGED_IN;
 import static extension.undertow.session.SessionStore.getValueForCookie;
 import static java.lang.System.currentTimeMillis;
 
@@ -20,7 +21,7 @@ public interface SwtSessionStore<T extends SWT> extends TokenSessionStore<T> {
 
     default T getSession(final HttpServerExchange exchange) throws NotLoggedIn, InvalidInput {
         final T session = getSession(exchange, null);
-        if (session == null) throw new NotLoggedIn();
+        if (session == null) throw NOT_LOGGED_IN;
         return session;
     }
     default T getSession(final HttpServerExchange exchange, final T defaultValue) throws InvalidInput {
@@ -37,7 +38,11 @@ public interface SwtSessionStore<T extends SWT> extends TokenSessionStore<T> {
     }
 
     private boolean isExpired(final T session) {
-        return session.exp < (currentTimeMillis() - getSessionDuration());
+        return isExpired(session, getSessionDuration());
+    }
+    // A session stays valid for one session duration past its exp, so it can still be renewed
+    static boolean isExpired(final SWT session, final long sessionDuration) {
+        return session.exp < (currentTimeMillis() - sessionDuration);
     }
 
 }
@@ -4,6 +4,8 @@ import extension.undertow.error.InvalidInput;
 import extension.undertow.error.NotLoggedIn;
 import io.undertow.server.HttpServerExchange;
 
+import static extension.undertow.error.InvalidInput.INVALID_SESSION;
+import static extension.undertow.error.NotLoggedIn.NOT_LOGGED_IN;
 import static extension.undertow.session.SessionStore.getValueForCookie;
 import static io.undertow.util.Headers.SET_COOKIE;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -26,7 +28,7 @@ public interface TokenSessionStore<T> extends SessionStore<T>, JsonSerializer {
     }
     default T getSession(final HttpServerExchange exchange) throws NotLoggedIn, InvalidInput {
         final T session = getSession(exchange, null);
-        if (session == null) throw new NotLoggedIn();
+        if (session == null) throw NOT_LOGGED_IN;
         return session;
     }
     default T getSession(final HttpServerExchange exchange, final T defaultValue) throws InvalidInput {
@@ -40,22 +42,40 @@ public interface TokenSessionStore<T> extends SessionStore<T>, JsonSerializer {
         exchange.getResponseHeaders().add(SET_COOKIE, getSessionCookieName() + "=" + getSessionCookieConfiguration());
     }
 
-    private String toSessionValue(final T session) {
-        final String encodedSession = encodeBase64Url(toJson(session).getBytes(UTF_8));
-        return encodedSession + "." + toVerification(getSessionValidationKey(), encodedSession);
+    // Tokens look like payload.mac.keyId, see KeyRing. Override to rotate keys, the default ring
+    // only holds getSessionValidationKey(). This is called for every request, return a ring that
+    // was built once and kept in a field, never build one here.
+    default KeyRing getSessionKeyRing() {
+        return KeyRing.singleKey(this, getSessionValidationKey());
     }
-    default T fromSessionValue(final String sessionValue) throws InvalidInput {
-        final String[] encodedSession = sessionValue.split("\\.");
-        if (isValidSession(encodedSession, getSessionValidationKey()))
-            throw new InvalidInput("Invalid session");
-        return fromJson(new String(decodeBase64Url(encodedSession[0]), UTF_8), getSessionClass());
+    // How the session is turned into the token payload, null is JSON through toJson() and fromJson().
+    // SessionCodec.binary(getSessionClass()) makes much smaller cookies, it checks the session class
+    // once so return it from a static field. Old JSON tokens are read either way.
+    default SessionCodec getSessionCodec() {
+        return null;
     }
 
-    private static boolean isValidSession(final String[] encodedSession, final String key) {
-        return encodedSession.length == 2 && encodedSession[1].equals(toVerification(key, encodedSession[0]));
+    private String toSessionValue(final T session) {
+        final KeyRing keys = getSessionKeyRing();
+        final SessionCodec codec = getSessionCodec();
+        final byte[] data = codec == null ? toJson(session).getBytes(UTF_8) : codec.encode(session, getSessionClass());
+        final String encodedSession = encodeBase64Url(data);
+        return encodedSession + "." + keys.sign(encodedSession) + "." + keys.currentKeyId();
     }
-    private static String toVerification(final String key, final String data) {
-        return encodeBase64Url(hmacSha256(data, key));
+    default T fromSessionValue(final String sessionValue) throws InvalidInput {
+        final int payloadEnd = sessionValue.indexOf('.');
+        if (payloadEnd == -1) throw INVALID_SESSION;
+        final int macEnd = sessionValue.indexOf('.', payloadEnd + 1);
+        final String payload = sessionValue.substring(0, payloadEnd);
+        final String mac = macEnd == -1 ? sessionValue.substring(payloadEnd + 1) : sessionValue.substring(payloadEnd + 1, macEnd);
+        final String keyId = macEnd == -1 ? null : sessionValue.substring(macEnd + 1);
+        if (!getSessionKeyRing().verify(keyId, payload, mac))
+            throw INVALID_SESSION;
+        final byte[] data = decodeBase64Url(payload);
+        final SessionCodec codec = getSessionCodec();
+        if (codec == null || (data.length > 0 && data[0] == '{'))
+            return fromJson(new String(data, UTF_8), getSessionClass());
+        return codec.decode(data, getSessionClass());
     }
 
 }
@@ -0,0 +1,318 @@
+package extension.undertow.websocket;
+
+import extension.undertow.error.AccessDenied;
+import extension.undertow.server.Logger;
+import extension.undertow.session.SWT;
+import extension.undertow.session.Session;
+import extension.undertow.session.SessionStore;
+import extension.undertow.session.SwtSessionStore;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+import org.xnio.IoUtils;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static extension.undertow.error.NotLoggedIn.NOT_LOGGED_IN;
+import static extension.undertow.session.SessionHandlers.hasSession;
+import static io.undertow.util.Headers.ORIGIN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// WebSocket connections for logged in users, grouped by topic. The upgrade only happens when the
+// SessionStore finds a session, anonymous requests get the usual NotLoggedIn. Connections subscribe
+// to topics, a broadcast encodes the message once and hands the same bytes to every subscriber.
+//
+// Every connection may have a limited number of messages that are sent but not yet written to the
+// network. A client that falls behind that far is disconnected instead of buffering its messages
+// without limit, it is expected to reconnect and catch up.
+//
+// Browsers send cookies with cross site WebSocket upgrades, so by default an upgrade whose Origin
+// names a different host than the request is refused. Use allowedOrigin to name the one site that
+// may connect, or allowAnyOrigin to turn the check off. Requests without an Origin are not from a
+// browser and are let through.
+//
+// The session is looked up once, at the upgrade, the cookie isn't sent again on an open connection.
+// When the store is an SwtSessionStore the connection is closed once the store would no longer accept
+// the session, the next message or push finds out, and the client has to reconnect with a cookie that
+// is still valid. Other stores are never asked again, logging out or deleting a session doesn't reach
+// open connections, close them from the application when that matters. Exceptions from onConnect and
+// onMessage are logged and close the connection.
+//
+//     final WebSocketHub<UserSession> hub = newWebSocketHub(logger, sessions)
+//         .onConnect((session, connection) -> connection.subscribe("user:" + session.userId()))
+//         .build();
+//     router.get("/ws", hub.handler());
+//     hub.broadcast("user:" + userId, serializer.toJson(notification));
+public final class WebSocketHub<T extends Session> {
+
+    public interface ConnectHandler<T extends Session> {
+        void onConnect(T session, Connection<T> connection) throws Exception;
+    }
+    public interface MessageHandler<T extends Session> {
+        void onMessage(T session, Connection<T> connection, String message) throws Exception;
+    }
+
+    public static <T extends Session> Builder<T> newWebSocketHub(final Logger logger, final SessionStore<T> sessions) {
+        return new Builder<>(logger, sessions);
+    }
+
+    public static final class Builder<T extends Session> {
+        private final Logger logger;
+        private final SessionStore<T> sessions;
+        private ConnectHandler<T> onConnect = (session, connection) -> {};
+        private MessageHandler<T> onMessage = (session, connection, message) -> {};
+        private int maxOutstanding = 64;
+        private long maxMessageSize = 64 * 1024;
+        private String allowedOrigin;
+        private boolean anyOrigin;
+
+        private Builder(final Logger logger, final SessionStore<T> sessions) {
+            this.logger = logger;
+            this.sessions = sessions;
+        }
+
+        public Builder<T> onConnect(final ConnectHandler<T> onConnect) {
+            this.onConnect = onConnect;
+            return this;
+        }
+        public Builder<T> onMessage(final MessageHandler<T> onMessage) {
+            this.onMessage = onMessage;
+            return this;
+        }
+        // Messages sent to one connection that may wait for the network before it is disconnected
+        public Builder<T> maxOutstanding(final int maxOutstanding) {
+            this.maxOutstanding = maxOutstanding;
+            return this;
+        }
+        // The largest text message accepted from a client
+        public Builder<T> maxMessageSize(final long maxMessageSize) {
+            this.maxMessageSize = maxMessageSize;
+            return this;
+        }
+        // Only upgrades with exactly this Origin are accepted, for example "https://app.example.com"
+        public Builder<T> allowedOrigin(final String allowedOrigin) {
+            this.allowedOrigin = allowedOrigin;
+            return this;
+        }
+        // Turns the Origin check off, any page the user visits can then open a connection with their cookie
+        public Builder<T> allowAnyOrigin() {
+            this.anyOrigin = true;
+            return this;
+        }
+        public WebSocketHub<T> build() {
+            return new WebSocketHub<>(this);
+        }
+    }
+
+    private static final AccessDenied INVALID_ORIGIN = new AccessDenied("Invalid origin");
+
+    private final AttachmentKey<T> sessionKey = AttachmentKey.create(Session.class);
+    private final Logger logger;
+    private final SessionStore<T> sessions;
+    private final ConnectHandler<T> onConnect;
+    private final MessageHandler<T> onMessage;
+    private final int maxOutstanding;
+    private final long maxMessageSize;
+    private final String allowedOrigin;
+    private final boolean anyOrigin;
+    private final Set<Connection<T>> connections = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<Connection<T>>> topics = new ConcurrentHashMap<>();
+    private final HttpHandler handshake;
+
+    private WebSocketHub(final Builder<T> builder) {
+        this.logger = builder.logger;
+        this.sessions = builder.sessions;
+        this.onConnect = builder.onConnect;
+        this.onMessage = builder.onMessage;
+        this.maxOutstanding = builder.maxOutstanding;
+        this.maxMessageSize = builder.maxMessageSize;
+        this.allowedOrigin = builder.allowedOrigin;
+        this.anyOrigin = builder.anyOrigin;
+        this.handshake = new WebSocketProtocolHandshakeHandler(this::connected);
+    }
+
+    public HttpHandler handler() {
+        return hasSession(sessions, exchange -> { throw NOT_LOGGED_IN; }, (session, exchange) -> {
+            if (!isAllowedOrigin(exchange)) throw INVALID_ORIGIN;
+            exchange.putAttachment(sessionKey, session);
+            handshake.handleRequest(exchange);
+        });
+    }
+
+    private boolean isAllowedOrigin(final HttpServerExchange exchange) {
+        final String origin = exchange.getRequestHeaders().getFirst(ORIGIN);
+        if (allowedOrigin != null) return allowedOrigin.equals(origin);
+        if (anyOrigin || origin == null) return true;
+        try {
+            final String host = new URI(origin).getHost();
+            return host != null && host.equalsIgnoreCase(exchange.getHostName());
+        } catch (final URISyntaxException e) {
+            return false;
+        }
+    }
+
+    // Returns the number of connections the message was handed to
+    public int broadcast(final String topic, final String message) {
+        final Set<Connection<T>> subscribers = topics.get(topic);
+        if (subscribers == null || subscribers.isEmpty()) return 0;
+        final ByteBuffer payload = ByteBuffer.wrap(message.getBytes(UTF_8)).asReadOnlyBuffer();
+        int sent = 0;
+        for (final Connection<T> connection : subscribers) {
+            if (connection.send(payload)) sent++;
+        }
+        return sent;
+    }
+    public int broadcastAll(final String message) {
+        final ByteBuffer payload = ByteBuffer.wrap(message.getBytes(UTF_8)).asReadOnlyBuffer();
+        int sent = 0;
+        for (final Connection<T> connection : connections) {
+            if (connection.send(payload)) sent++;
+        }
+        return sent;
+    }
+
+    public int connectionCount() {
+        return connections.size();
+    }
+    public int subscriberCount(final String topic) {
+        final Set<Connection<T>> subscribers = topics.get(topic);
+        return subscribers == null ? 0 : subscribers.size();
+    }
+
+    public void close() {
+        for (final Connection<T> connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void connected(final WebSocketHttpExchange exchange, final WebSocketChannel channel) {
+        final T session = exchange.getAttachment(sessionKey);
+        final var connection = new Connection<>(this, session, channel);
+        connections.add(connection);
+        channel.addCloseTask(closed -> connection.removed());
+        channel.getReceiveSetter().set(new AbstractReceiveListener() {
+            @Override
+            protected void onFullTextMessage(final WebSocketChannel channel, final BufferedTextMessage message) {
+                if (connection.isExpired()) {
+                    connection.close();
+                    return;
+                }
+                try {
+                    onMessage.onMessage(session, connection, message.getData());
+                } catch (final Exception e) {
+                    logger.error(e);
+                    connection.close();
+                }
+            }
+            @Override
+            protected long getMaxTextBufferSize() {
+                return maxMessageSize;
+            }
+        });
+        try {
+            onConnect.onConnect(session, connection);
+        } catch (final Exception e) {
+            logger.error(e);
+            connection.close();
+            return;
+        }
+        channel.resumeReceives();
+    }
+
+    public static final class Connection<T extends Session> {
+        private final WebSocketHub<T> hub;
+        private final T session;
+        private final WebSocketChannel channel;
+        private final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final WebSocketCallback<Void> written = new WebSocketCallback<>() {
+            public void complete(final WebSocketChannel channel, final Void context) {
+                outstanding.decrementAndGet();
+            }
+            public void onError(final WebSocketChannel channel, final Void context, final Throwable throwable) {
+                outstanding.decrementAndGet();
+                close();
+            }
+        };
+
+        private Connection(final WebSocketHub<T> hub, final T session, final WebSocketChannel channel) {
+            this.hub = hub;
+            this.session = session;
+            this.channel = channel;
+        }
+
+        public T session() {
+            return session;
+        }
+
+        public void subscribe(final String topic) {
+            if (!subscriptions.add(topic)) return;
+            // Adding inside compute, so unsubscribe can't drop the set between creating and adding
+            hub.topics.compute(topic, (key, subscribers) -> {
+                if (subscribers == null) subscribers = ConcurrentHashMap.newKeySet();
+                subscribers.add(this);
+                return subscribers;
+            });
+            // A connection that closed in the meantime has already cleaned up, so undo this one
+            if (!channel.isOpen()) unsubscribe(topic);
+        }
+        public void unsubscribe(final String topic) {
+            if (!subscriptions.remove(topic)) return;
+            hub.topics.computeIfPresent(topic, (key, subscribers) -> {
+                subscribers.remove(this);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+        }
+
+        public boolean send(final String message) {
+            return send(ByteBuffer.wrap(message.getBytes(UTF_8)));
+        }
+
+        // Every receiver gets its own view of the payload, the bytes themselves are shared
+        private boolean send(final ByteBuffer payload) {
+            if (!channel.isOpen()) return false;
+            if (isExpired()) {
+                close();
+                return false;
+            }
+            if (outstanding.incrementAndGet() > hub.maxOutstanding) {
+                outstanding.decrementAndGet();
+                close();
+                return false;
+            }
+            WebSockets.sendText(payload.duplicate(), channel, written);
+            return true;
+        }
+
+        public void close() {
+            IoUtils.safeClose(channel);
+        }
+
+        // The same rule the store applies to a request, so a connection lives as long as its cookie would
+        private boolean isExpired() {
+            return hub.sessions instanceof SwtSessionStore<?> store && session instanceof SWT swt
+                && SwtSessionStore.isExpired(swt, store.getSessionDuration());
+        }
+
+        private void removed() {
+            hub.connections.remove(this);
+            for (final String topic : subscriptions) {
+                unsubscribe(topic);
+            }
+        }
+    }
+
+}